@@ -6,4 +6,8 @@ public interface HttpConstant {
 
     String HTTP_FORWARD_SEPARATOR = "X-Forwarded-For";
 
+    String HTTP_IDEMPOTENCY_KEY = "Idempotency-Key"; // 幂等键，带有幂等键的非幂等方法请求也可以重试
+
+    String HTTP_REQUEST_TIMEOUT = "X-Request-Timeout"; // 请求剩余的超时时间，单位ms，网关转发时改写为剩余时间，下游可据此放弃客户端已经不再等待的请求
+
 }
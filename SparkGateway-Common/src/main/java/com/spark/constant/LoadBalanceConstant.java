@@ -4,10 +4,18 @@ public interface LoadBalanceConstant {
 
     int VIRTUAL_NODE_NUM = 100; // 一致性哈希算法虚拟节点个数
 
+    int MAGLEV_TABLE_SIZE = 65537; // Maglev查找表大小，质数
+
+    long EWMA_DECAY_TIME = 10000; // 延迟指数加权移动平均的衰减时间，单位毫秒
+
+    long SLOW_START_REFRESH_INTERVAL = 1000; // 慢启动期间按当前权重重建调度表的间隔，单位毫秒
+
     String ROUND_ROBIN_LOAD_BALANCE_STRATEGY = "round_robin_load_balance_strategy"; // 轮询策略
 
     String WEIGHT_LOAD_BALANCE_STRATEGY = "weight_load_balance_strategy"; // 权重策略
 
+    String WEIGHT_ROUND_ROBIN_LOAD_BALANCE_STRATEGY = "weight_round_robin_load_balance_strategy"; // 平滑加权轮询策略
+
     String RANDOM_LOAD_BALANCE_STRATEGY = "random_load_balance_strategy"; // 随机策略
 
     String GRAY_LOAD_BALANCE_STRATEGY = "gray_load_balance_strategy"; // 灰度流量的策略
@@ -16,4 +24,10 @@ public interface LoadBalanceConstant {
 
     String CLIENT_IP_CONSISTENT_HASH_LOAD_BALANCE_STRATEGY = "client_ip_consistent_hash_load_balance_strategy"; // 根据请求ip的一致性哈希策略
 
+    String LEAST_REQUEST_LOAD_BALANCE_STRATEGY = "least_request_load_balance_strategy"; // 最少请求数策略，随机两个实例中选择请求数较少的
+
+    String PEAK_EWMA_LOAD_BALANCE_STRATEGY = "peak_ewma_load_balance_strategy"; // 延迟感知策略，随机两个实例中选择延迟与请求数乘积较小的
+
+    String MAGLEV_LOAD_BALANCE_STRATEGY = "maglev_load_balance_strategy"; // Maglev哈希策略，哈希键可配置
+
 }
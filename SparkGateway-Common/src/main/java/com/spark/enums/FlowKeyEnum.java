@@ -0,0 +1,22 @@
+package com.spark.enums;
+
+
+/**
+ * @author: spark
+ * @date: 2025/01/08 15:20
+ * @description: 流控维度
+ **/
+public enum FlowKeyEnum {
+
+    SERVICE("服务"),
+    CLIENT_IP("客户端IP"),
+    HEADER("请求头"),
+    COOKIE("Cookie")
+    ;
+
+    private final String des;
+
+    FlowKeyEnum(String des) {
+        this.des = des;
+    }
+}
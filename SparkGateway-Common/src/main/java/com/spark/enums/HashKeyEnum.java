@@ -0,0 +1,22 @@
+package com.spark.enums;
+
+
+/**
+ * @author: spark
+ * @date: 2025/01/08 15:20
+ * @description: 哈希负载均衡的键来源
+ **/
+public enum HashKeyEnum {
+
+    CLIENT_IP("客户端IP"),
+    HEADER("请求头"),
+    COOKIE("Cookie"),
+    PATH_SEGMENT("路径段")
+    ;
+
+    private final String des;
+
+    HashKeyEnum(String des) {
+        this.des = des;
+    }
+}
@@ -0,0 +1,22 @@
+package com.spark.enums;
+
+import lombok.Getter;
+
+/**
+ * @author: spark
+ * @date: 2025/01/06 10:12
+ * @description: 下游请求客户端实现
+ **/
+@Getter
+public enum HttpClientEnum {
+
+    ASYNC_HTTP_CLIENT("AsyncHttpClient"),
+    NETTY("Netty原生客户端");
+
+    private final String des;
+
+    HttpClientEnum(String des) {
+        this.des = des;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.spark.enums;
+
+
+/**
+ * @author: spark
+ * @date: 2025/01/10 10:30
+ * @description: 重试模式
+ **/
+public enum RetryModeEnum {
+
+    ALL("所有请求都重试"),
+    IDEMPOTENT("只重试幂等方法的请求和带有幂等键的请求")
+    ;
+
+    private final String des;
+
+    RetryModeEnum(String des) {
+        this.des = des;
+    }
+}
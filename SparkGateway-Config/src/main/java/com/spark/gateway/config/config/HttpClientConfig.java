@@ -1,10 +1,13 @@
 package com.spark.gateway.config.config;
 
+import com.spark.enums.HttpClientEnum;
 import lombok.Data;
 
 @Data
 public class HttpClientConfig {
 
+    private HttpClientEnum type = HttpClientEnum.ASYNC_HTTP_CLIENT; // 下游请求客户端实现
+
     private int eventLoopGroupWorkerNum = Runtime.getRuntime().availableProcessors() * 2; // worker数量
 
     private int httpConnectTimeout = 30 * 1000; // 连接超时时间
@@ -19,4 +22,10 @@ public class HttpClientConfig {
 
     private int httpPooledConnectionIdleTimeout = 60 * 1000; // 客户端空闲连接超时时间, 默认60秒
 
+    private int httpMaxConnectionsPerEventLoop = 256; // Netty原生客户端每个EventLoop到每个实例的最大连接数
+
+    private int httpMaxPendingAcquires = 1024; // Netty原生客户端每个连接池最多等待获取连接的请求数
+
+    private int httpMaxContentLength = 64 * 1024 * 1024; // Netty原生客户端聚合下游响应的最大长度，默认64MB
+
 }
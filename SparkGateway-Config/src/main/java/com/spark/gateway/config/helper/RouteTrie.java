@@ -0,0 +1,220 @@
+package com.spark.gateway.config.helper;
+
+import com.spark.gateway.config.pojo.RouteDefinition;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * 按路径段编译的路由前缀树
+ * 支持三种节点：普通路径段精确匹配、* 匹配任意单个路径段、末尾的 ** 匹配剩余任意路径段
+ * 路由更新时整体重建，构建完成后不可变，可以被多个线程无锁读取
+ * 匹配时按下标在原始uri上逐段扫描，不切分字符串，匹配耗时只与路径段数有关
+ */
+public class RouteTrie {
+
+    private static final String SINGLE_WILDCARD = "*";
+
+    private static final String MULTI_WILDCARD = "**";
+
+    public static final RouteTrie EMPTY = new RouteTrie(Collections.emptyList());
+
+    private final Node root;
+
+    /**
+     * 无法用前缀树表示的路由，例如 ** 出现在中间、路径段内包含 * 的路由，构建时预编译为正则兜底匹配
+     */
+    private final List<PatternRoute> patternRoutes = new ArrayList<>();
+
+    public RouteTrie(Collection<RouteDefinition> routes) {
+        BuildNode buildRoot = new BuildNode();
+        for (RouteDefinition route : routes) {
+            if (route == null || route.getUri() == null) {
+                continue;
+            }
+            if (!insert(buildRoot, route)) {
+                patternRoutes.add(new PatternRoute(Pattern.compile(route.getUri().replace("**", ".*")), route));
+            }
+        }
+        this.root = buildRoot.freeze();
+    }
+
+    /**
+     * 根据uri匹配路由，多个路由匹配时选择顺序最小、顺序相同时uri最长的路由
+     *
+     * @param uri 请求uri，可以携带查询参数
+     * @return 匹配到的路由，没有匹配时返回null
+     */
+    public RouteDefinition match(String uri) {
+        int end = uri.indexOf('?');
+        if (end < 0) {
+            end = uri.length();
+        }
+        RouteDefinition best = search(root, uri, 0, end, null);
+        if (!patternRoutes.isEmpty()) {
+            // 与前缀树一样只匹配路径部分，不包括查询参数
+            for (PatternRoute patternRoute : patternRoutes) {
+                if (patternRoute.pattern.matcher(uri).region(0, end).matches()) {
+                    best = better(best, patternRoute.route);
+                }
+            }
+        }
+        return best;
+    }
+
+    private static RouteDefinition search(Node node, String path, int pos, int end, RouteDefinition best) {
+        // 以 ** 结尾的路由匹配剩余的任意路径
+        if (node.multiRoute != null) {
+            best = better(best, node.multiRoute);
+        }
+        while (pos < end && path.charAt(pos) == '/') {
+            pos++;
+        }
+        if (pos >= end) {
+            return node.route == null ? best : better(best, node.route);
+        }
+        int segmentEnd = path.indexOf('/', pos);
+        if (segmentEnd < 0 || segmentEnd > end) {
+            segmentEnd = end;
+        }
+        Node child = node.child(path, pos, segmentEnd);
+        if (child != null) {
+            best = search(child, path, segmentEnd, end, best);
+        }
+        if (node.single != null) {
+            best = search(node.single, path, segmentEnd, end, best);
+        }
+        return best;
+    }
+
+    private static RouteDefinition better(RouteDefinition current, RouteDefinition candidate) {
+        if (current == null) {
+            return candidate;
+        }
+        if (candidate.getOrder() != current.getOrder()) {
+            return candidate.getOrder() < current.getOrder() ? candidate : current;
+        }
+        return candidate.getUri().length() > current.getUri().length() ? candidate : current;
+    }
+
+    /**
+     * 把路由插入前缀树
+     *
+     * @return 路由无法用前缀树表示时返回false
+     */
+    private static boolean insert(BuildNode root, RouteDefinition route) {
+        String[] segments = Arrays.stream(route.getUri().split("/")).filter(s -> !s.isEmpty()).toArray(String[]::new);
+        BuildNode node = root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (MULTI_WILDCARD.equals(segment)) {
+                if (i != segments.length - 1) {
+                    return false;
+                }
+                node.multiRoute = better(node.multiRoute, route);
+                return true;
+            }
+            if (SINGLE_WILDCARD.equals(segment)) {
+                if (node.single == null) {
+                    node.single = new BuildNode();
+                }
+                node = node.single;
+            } else if (segment.indexOf('*') >= 0) {
+                return false;
+            } else {
+                node = node.children.computeIfAbsent(segment, k -> new BuildNode());
+            }
+        }
+        node.route = better(node.route, route);
+        return true;
+    }
+
+    /**
+     * 构建阶段使用的节点
+     */
+    private static class BuildNode {
+
+        private final Map<String, BuildNode> children = new HashMap<>();
+
+        private BuildNode single;
+
+        private RouteDefinition route;
+
+        private RouteDefinition multiRoute;
+
+        private Node freeze() {
+            Node node = new Node(children.size());
+            for (Map.Entry<String, BuildNode> entry : children.entrySet()) {
+                node.put(entry.getKey(), entry.getValue().freeze());
+            }
+            node.single = single == null ? null : single.freeze();
+            node.route = route;
+            node.multiRoute = multiRoute;
+            return node;
+        }
+
+    }
+
+    /**
+     * 匹配阶段使用的不可变节点，子节点使用开放寻址哈希表存储，查找时直接对uri的区间计算哈希，不产生子串
+     */
+    private static class Node {
+
+        private final String[] keys;
+
+        private final Node[] children;
+
+        private final int mask;
+
+        private Node single; // * 子节点
+
+        private RouteDefinition route; // 在此节点结束的路由
+
+        private RouteDefinition multiRoute; // 在此节点以 ** 结尾的路由
+
+        private Node(int size) {
+            int capacity = 2;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            this.keys = new String[capacity];
+            this.children = new Node[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private void put(String key, Node child) {
+            int index = spread(key.hashCode()) & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            children[index] = child;
+        }
+
+        private Node child(String path, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int length = end - start;
+            int index = spread(hash) & mask;
+            String key;
+            while ((key = keys[index]) != null) {
+                if (key.length() == length && path.regionMatches(start, key, 0, length)) {
+                    return children[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+    }
+
+    private record PatternRoute(Pattern pattern, RouteDefinition route) {
+    }
+
+}
@@ -1,11 +1,14 @@
 package com.spark.gateway.config.manager;
 
 
+import com.spark.gateway.config.helper.RouteTrie;
 import com.spark.gateway.config.pojo.RouteDefinition;
 import com.spark.gateway.config.pojo.ServiceDefinition;
 import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.pojo.ServiceInstanceSnapshot;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -20,16 +23,22 @@ public class DynamicConfigManager {
     private static final DynamicConfigManager INSTANCE = new DynamicConfigManager();
     // 路由规则变化监听器
     private final ConcurrentHashMap<String /* 服务名 */, List<RouteListener>> routeListenerMap = new ConcurrentHashMap<>();
+    // 服务实例变化监听器
+    private final ConcurrentHashMap<String /* 服务名 */, List<InstanceListener>> instanceListenerMap = new ConcurrentHashMap<>();
     // 路由id对应的路由
     private final ConcurrentHashMap<String /* 路由id */, RouteDefinition> routeId2RouteMap = new ConcurrentHashMap<>();
     // 服务对应的路由
     private final ConcurrentHashMap<String /* 服务名 */, RouteDefinition> serviceName2RouteMap = new ConcurrentHashMap<>();
     // URI对应的路由
     private final ConcurrentHashMap<String /* URI路径 */, RouteDefinition> uri2RouteMap = new ConcurrentHashMap<>();
+    // 由uri2RouteMap编译出的路由前缀树，路由更新时整体替换
+    private volatile RouteTrie routeTrie = RouteTrie.EMPTY;
     // 服务
     private final ConcurrentHashMap<String /* 服务名 */, ServiceDefinition> serviceDefinitionMap = new ConcurrentHashMap<>();
     // 服务对应的实例
     private final ConcurrentHashMap<String /* 服务名 */, ConcurrentHashMap<String /* 实例id */, ServiceInstance>> serviceInstanceMap = new ConcurrentHashMap<>();
+    // 服务对应的实例快照，实例变化时整体替换
+    private final ConcurrentHashMap<String /* 服务名 */, ServiceInstanceSnapshot> instanceSnapshotMap = new ConcurrentHashMap<>();
 
     /*********   单例   *********/
     private DynamicConfigManager() {
@@ -61,6 +70,8 @@ public class DynamicConfigManager {
         if (routes == null || routes.isEmpty()) {
             return;
         }
+        // 记录更新前服务对应的路由，用于判断哪些服务的路由发生了变化
+        Map<String, RouteDefinition> oldRoutes = new HashMap<>(serviceName2RouteMap);
         // 如果指定清除旧路由，则清除所有现有路由映射
         if (clear) {
             routeId2RouteMap.clear();
@@ -80,6 +91,14 @@ public class DynamicConfigManager {
             // 将当前路由添加到基于URI的映射中
             uri2RouteMap.put(route.getUri(), route);
         }
+        // 重建路由前缀树并整体替换，匹配线程要么看到旧树要么看到新树
+        routeTrie = new RouteTrie(uri2RouteMap.values());
+        // 通知路由发生变化的服务，清除按旧路由构建的缓存
+        for (RouteDefinition route : routes) {
+            if (route != null && !route.equals(oldRoutes.get(route.getServiceName()))) {
+                changeRoute(route);
+            }
+        }
     }
 
     public RouteDefinition getRouteById(String id) {
@@ -90,10 +109,18 @@ public class DynamicConfigManager {
         return serviceName2RouteMap.get(serviceName);
     }
 
+    public Collection<RouteDefinition> getAllRoutes() {
+        return serviceName2RouteMap.values();
+    }
+
     public Set<Map.Entry<String, RouteDefinition>> getAllUriEntry() {
         return uri2RouteMap.entrySet();
     }
 
+    public RouteTrie getRouteTrie() {
+        return routeTrie;
+    }
+
     /*********   服务   *********/
     public void updateService(ServiceDefinition serviceDefinition) {
         serviceDefinitionMap.put(serviceDefinition.getServiceName(), serviceDefinition);
@@ -106,14 +133,25 @@ public class DynamicConfigManager {
     /*********   实例   *********/
     public void addServiceInstance(String serviceName, ServiceInstance instance) {
         serviceInstanceMap.computeIfAbsent(serviceName, k -> new ConcurrentHashMap<>()).put(instance.getInstanceId(), instance);
+        changeInstances(serviceName);
     }
 
+    /**
+     * 更新服务的全部实例
+     * 注册中心会定时全量推送实例，只有实例发生变化时才通知监听器
+     */
     public void updateInstances(ServiceDefinition serviceDefinition, Set<ServiceInstance> newInstances) {
-        ConcurrentHashMap<String, ServiceInstance> oldInstancesMap = serviceInstanceMap.computeIfAbsent(serviceDefinition.getServiceName(), k -> new ConcurrentHashMap<>());
-        oldInstancesMap.clear();
+        ConcurrentHashMap<String, ServiceInstance> oldInstancesMap = serviceInstanceMap.get(serviceDefinition.getServiceName());
+        if (oldInstancesMap != null && oldInstancesMap.size() == newInstances.size() && newInstances.containsAll(oldInstancesMap.values())) {
+            return;
+        }
+        // 构建新的实例表整体替换，避免先清空再写入期间读到空实例
+        ConcurrentHashMap<String, ServiceInstance> newInstancesMap = new ConcurrentHashMap<>();
         for (ServiceInstance newInstance : newInstances) {
-            oldInstancesMap.put(newInstance.getInstanceId(), newInstance);
+            newInstancesMap.put(newInstance.getInstanceId(), newInstance);
         }
+        serviceInstanceMap.put(serviceDefinition.getServiceName(), newInstancesMap);
+        changeInstances(serviceDefinition.getServiceName());
     }
 
     public void removeServiceInstance(String serviceName, ServiceInstance instance) {
@@ -124,17 +162,45 @@ public class DynamicConfigManager {
             v.remove(instance.getInstanceId());
             return v;
         });
+        changeInstances(serviceName);
     }
 
     public Map<String, ServiceInstance> getInstancesByServiceName(String serviceName) {
         return serviceInstanceMap.get(serviceName);
     }
 
+    /**
+     * 获取服务的实例快照
+     *
+     * @param serviceName 服务名
+     * @return 实例快照，服务没有实例时返回空快照
+     */
+    public ServiceInstanceSnapshot getInstanceSnapshot(String serviceName) {
+        return instanceSnapshotMap.getOrDefault(serviceName, ServiceInstanceSnapshot.EMPTY);
+    }
+
     /*********   监听   *********/
     public void addRouteListener(String serviceName, RouteListener listener) {
         routeListenerMap.computeIfAbsent(serviceName, key -> new CopyOnWriteArrayList<>()).add(listener);
     }
 
+    public void addInstanceListener(String serviceName, InstanceListener listener) {
+        instanceListenerMap.computeIfAbsent(serviceName, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void changeInstances(String serviceName) {
+        // 先发布新的实例快照，监听器重建缓存时读到的是最新实例
+        Map<String, ServiceInstance> instances = serviceInstanceMap.get(serviceName);
+        instanceSnapshotMap.put(serviceName, instances == null ? ServiceInstanceSnapshot.EMPTY : new ServiceInstanceSnapshot(instances.values()));
+        List<InstanceListener> instanceListeners = instanceListenerMap.get(serviceName);
+        if (instanceListeners == null || instanceListeners.isEmpty()) {
+            return;
+        }
+        for (InstanceListener instanceListener : instanceListeners) {
+            instanceListener.changeOnInstances(serviceName);
+        }
+    }
+
     public void changeRoute(RouteDefinition routeDefinition) {
         List<RouteListener> routeListeners = routeListenerMap.get(routeDefinition.getServiceName());
         if (routeListeners == null || routeListeners.isEmpty()) {
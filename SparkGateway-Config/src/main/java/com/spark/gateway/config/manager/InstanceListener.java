@@ -0,0 +1,8 @@
+package com.spark.gateway.config.manager;
+
+
+public interface InstanceListener {
+
+    void changeOnInstances(String serviceName);
+
+}
@@ -3,12 +3,17 @@ package com.spark.gateway.config.pojo;
 
 import com.spark.enums.CircuitBreakerEnum;
 import com.spark.enums.FlowEnum;
+import com.spark.enums.FlowKeyEnum;
+import com.spark.enums.HashKeyEnum;
 import com.spark.enums.ResilienceEnum;
+import com.spark.enums.RetryModeEnum;
 import lombok.Data;
 
 import java.util.*;
 
 import static com.spark.constant.FallbackConstant.DEFAULT_FALLBACK_HANDLER_NAME;
+import static com.spark.constant.HttpConstant.HTTP_IDEMPOTENCY_KEY;
+import static com.spark.constant.LoadBalanceConstant.EWMA_DECAY_TIME;
 import static com.spark.constant.LoadBalanceConstant.ROUND_ROBIN_LOAD_BALANCE_STRATEGY;
 import static com.spark.constant.LoadBalanceConstant.VIRTUAL_NODE_NUM;
 import static com.spark.constant.SparkConstant.MAX_GRAY_THRESHOLD;
@@ -31,12 +36,40 @@ public class RouteDefinition {
     // 路由顺序，当请求匹配到多个路由时，选择顺序小的
     private int order = 0;
 
+    // 请求总超时时间，单位ms，包括排队、重试和退避等待的全部时间，每次下游调用只能使用剩余的时间，配置是0时不限制
+    private int timeout = 0;
+
+    // 是否开启流式转发，开启后请求体和响应体不做聚合，按块在客户端和下游服务之间转发，适用于大文件上传下载
+    private boolean streamEnabled = false;
+
     // 系统弹性配置，熔断、降级、重试等
     private ResilienceConfig resilience = new ResilienceConfig();
 
+    // 实例健康检查配置，主动探测和被动异常剔除
+    private HealthCheckConfig healthCheck = new HealthCheckConfig();
+
     // 路由需要走的过滤器
     private Set<FilterConfig> filterConfigs = new HashSet<>();
 
+    @Data
+    public static class HealthCheckConfig {
+
+        // 主动探测
+        private boolean enabled = false; // 是否开启主动探测
+        private int interval = 5000; // 探测间隔，单位ms
+        private int timeout = 1000; // 探测超时时间，单位ms
+        private String path; // HTTP探测路径，返回2xx、3xx视为健康，为空时只探测TCP连接
+        private int unhealthyThreshold = 3; // 连续探测失败多少次后摘除实例
+        private int healthyThreshold = 2; // 摘除后连续探测成功多少次后恢复实例
+
+        // 被动异常剔除
+        private boolean outlierDetectionEnabled = true; // 是否开启被动异常剔除
+        private int consecutiveFailures = 5; // 连续多少次5xx或连接失败后剔除实例
+        private int baseEjectionTime = 30000; // 首次剔除时长，单位ms，之后每次翻倍
+        private int maxEjectionTime = 300000; // 最长剔除时长，单位ms
+
+    }
+
     @Data
     public static class ResilienceConfig {
 
@@ -44,6 +77,7 @@ public class RouteDefinition {
 
         private boolean retryEnabled = true; // 是否开启重试
         private boolean circuitBreakerEnabled = true; // 是否开启熔断
+        private boolean instanceCircuitBreakerEnabled = false; // 是否开启实例级熔断，每个实例单独一个断路器，熔断的实例在负载均衡时被排除
         private boolean fallbackEnabled = true; // 是否开启降级
         private boolean bulkheadEnabled = false; // 是否开启信号量隔离
         private boolean threadPoolBulkheadEnabled = false; // 是否开启线程池隔离
@@ -52,7 +86,11 @@ public class RouteDefinition {
 
         // Retry
         private int maxAttempts = 3; // 重试次数
-        private int waitDuration = 500; // 重试间隔
+        private int waitDuration = 500; // 重试退避的基础间隔，单位ms，第n次重试在0到waitDuration*2^(n-1)之间随机等待
+        private int maxBackoffDuration = 10000; // 重试退避的最大间隔，单位ms
+        private int retryBudgetRatio = 20; // 重试请求占请求数的最大百分比，预算不足时不再重试
+        private RetryModeEnum retryMode = RetryModeEnum.IDEMPOTENT; // 重试模式，默认只重试幂等方法的请求和带有幂等键的请求，避免重复写入
+        private String idempotencyKeyHeader = HTTP_IDEMPOTENCY_KEY; // 幂等键的请求头名
 
         // CircuitBreaker
         private int failureRateThreshold = 50; // 以百分比配置失败率阈值。当失败率大于等于阈值时，进行熔断，并进行服务降级
@@ -74,10 +112,15 @@ public class RouteDefinition {
         private int maxWaitDuration = 0; // 最大等待时间
         private boolean fairCallHandlingEnabled = false; // 是否公平竞争信号量
 
-        // ThreadPoolBulkhead
-        private int coreThreadPoolSize = 5; // 核心线程数
-        private int maxThreadPoolSize = 10; // 最大线程数
-        private int queueCapacity = 100; // 队列容量
+        // ThreadPoolBulkhead，以异步舱壁实现，不占用线程
+        private int coreThreadPoolSize = 5; // 核心线程数，异步舱壁不使用
+        private int maxThreadPoolSize = 10; // 同时进行的最大下游调用数
+        private int queueCapacity = 100; // 等待队列容量
+
+        // Hedging，只对幂等的GET、HEAD、OPTIONS请求生效
+        private boolean hedgingEnabled = false; // 是否开启对冲请求，请求超过对冲延迟仍未返回时向另一个实例再发一次，先返回的生效
+        private int hedgingDelay = 0; // 对冲延迟，单位ms，配置是0时使用观测到的p95延迟
+        private int hedgingMaxRatio = 10; // 对冲请求占请求数的最大百分比，限制额外的下游负载
 
     }
 
@@ -136,6 +179,41 @@ public class RouteDefinition {
          */
         private int virtualNodeNum = VIRTUAL_NODE_NUM;
 
+        /**
+         * 一致性哈希的负载上限系数c，实例正在进行的请求数超过 c * 平均值 时顺延到哈希环上的下一个实例，不大于1时不限制
+         */
+        private double boundedLoadFactor = 0;
+
+        /**
+         * Peak-EWMA策略的衰减时间，单位毫秒，越小越快忘记历史延迟
+         */
+        private long ewmaDecayTime = EWMA_DECAY_TIME;
+
+        /**
+         * Maglev策略的哈希键来源，默认客户端IP
+         */
+        private HashKeyEnum hashKeyType = HashKeyEnum.CLIENT_IP;
+
+        /**
+         * 哈希键名称，请求头名、Cookie名，或者路径段下标（从0开始）
+         */
+        private String hashKeyName;
+
+        /**
+         * 慢启动时长，单位毫秒，新上线的实例在这段时间内权重从下限逐渐升到配置的权重，0表示不开启
+         */
+        private long slowStartWindow = 0;
+
+        /**
+         * 慢启动的曲线，权重系数为 (已上线时长 / 慢启动时长) ^ (1 / aggression)，1为线性，越大前期升得越快
+         */
+        private double slowStartAggression = 1.0;
+
+        /**
+         * 慢启动的权重下限，配置权重的百分比
+         */
+        private int slowStartMinWeightPercent = 10;
+
     }
 
     @Data
@@ -164,6 +242,22 @@ public class RouteDefinition {
          */
         private int rate = 500;
 
+        /**
+         * 流控维度，默认按服务整体限流
+         * 按客户端IP、请求头、Cookie限流时，每个取值单独一个限流器
+         */
+        private FlowKeyEnum keyType = FlowKeyEnum.SERVICE;
+
+        /**
+         * 按请求头或Cookie限流时取值的名字
+         */
+        private String keyName;
+
+        /**
+         * 按维度限流时最多同时保留的限流器个数，超出后淘汰最近未访问的
+         */
+        private int maxKeys = 100000;
+
     }
 }
 
@@ -0,0 +1,83 @@
+package com.spark.gateway.config.pojo;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 服务实例快照
+ * 实例变化时整体重建并替换，构建后不可变，负载均衡和灰度判断直接读取预先分好组的实例列表和汇总值，不再逐请求过滤和求和
+ */
+@Getter
+public class ServiceInstanceSnapshot {
+
+    public static final ServiceInstanceSnapshot EMPTY = new ServiceInstanceSnapshot(Collections.emptyList());
+
+    /**
+     * 全部实例
+     */
+    private final List<ServiceInstance> allInstances;
+
+    /**
+     * 启用的实例
+     */
+    private final List<ServiceInstance> enabledInstances;
+
+    /**
+     * 启用的灰度实例
+     */
+    private final List<ServiceInstance> grayInstances;
+
+    /**
+     * 启用的非灰度实例
+     */
+    private final List<ServiceInstance> nonGrayInstances;
+
+    /**
+     * 启用的非灰度实例权重之和
+     */
+    private final int totalWeight;
+
+    /**
+     * 启用的灰度实例灰度比例之和
+     */
+    private final double totalGrayThreshold;
+
+    public ServiceInstanceSnapshot(Collection<ServiceInstance> instances) {
+        List<ServiceInstance> enabled = new ArrayList<>();
+        List<ServiceInstance> gray = new ArrayList<>();
+        List<ServiceInstance> nonGray = new ArrayList<>();
+        int weight = 0;
+        double grayThreshold = 0;
+        for (ServiceInstance instance : instances) {
+            if (!instance.isEnabled()) {
+                continue;
+            }
+            enabled.add(instance);
+            if (instance.isGray()) {
+                gray.add(instance);
+                grayThreshold += instance.getThreshold();
+            } else {
+                nonGray.add(instance);
+                weight += instance.getWeight();
+            }
+        }
+        this.allInstances = List.copyOf(instances);
+        this.enabledInstances = List.copyOf(enabled);
+        this.grayInstances = List.copyOf(gray);
+        this.nonGrayInstances = List.copyOf(nonGray);
+        this.totalWeight = weight;
+        this.totalGrayThreshold = grayThreshold;
+    }
+
+    /**
+     * 普通请求可选的实例，优先非灰度实例，没有非灰度实例时使用全部启用的实例
+     */
+    public List<ServiceInstance> getNormalInstances() {
+        return nonGrayInstances.isEmpty() ? enabledInstances : nonGrayInstances;
+    }
+
+}
@@ -1,17 +1,27 @@
 package com.spark.gateway.config.util;
 
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.collection.ConcurrentHashSet;
 import cn.hutool.json.JSONUtil;
+import com.spark.gateway.config.manager.DynamicConfigManager;
 import com.spark.gateway.config.pojo.RouteDefinition;
 
 import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_NAME;
 import static com.spark.constant.FilterConstant.SPARK_FILTER_NAME;
 
 public class FilterUtil {
 
+    // 服务对应的已解析过滤器配置
+    private static final Map<String /* 服务名 */, RouteFilterConfigs> filterConfigCache = new ConcurrentHashMap<>();
+
+    private static final Set<String> addListener = new ConcurrentHashSet<>();
+
     public static RouteDefinition.FilterConfig findFilterConfigByName(Collection<RouteDefinition.FilterConfig> filterConfigs, String name) {
         if (name == null || name.isEmpty() || filterConfigs == null || filterConfigs.isEmpty()) return null;
         for (RouteDefinition.FilterConfig filterConfig : filterConfigs) {
@@ -26,7 +36,34 @@ public class FilterUtil {
     public static <T> T findFilterConfigByClass(Collection<RouteDefinition.FilterConfig> filterConfigs, String name, Class<T> clazz) {
         RouteDefinition.FilterConfig filterConfig = findFilterConfigByName(filterConfigs, name);
         if (filterConfig == null) return null;
-        return BeanUtil.toBean(filterConfig.getConfig(), clazz);
+        return JSONUtil.toBean(filterConfig.getConfig(), clazz);
+    }
+
+    /**
+     * 获取路由上已解析的过滤器配置
+     * 每个路由的过滤器配置只解析一次，路由变更时通过路由监听器清除缓存
+     *
+     * @param route 路由
+     * @param name  过滤器名
+     * @param clazz 过滤器配置类型
+     * @return 过滤器配置，路由上没有该过滤器时返回null
+     */
+    public static <T> T findFilterConfigByClass(RouteDefinition route, String name, Class<T> clazz) {
+        RouteFilterConfigs configs = filterConfigCache.computeIfAbsent(route.getServiceName(), serviceName -> {
+            if (!addListener.contains(serviceName)) {
+                DynamicConfigManager.getInstance().addRouteListener(serviceName, newRoute -> filterConfigCache.remove(newRoute.getServiceName()));
+                addListener.add(serviceName);
+            }
+            return new RouteFilterConfigs(route);
+        });
+        // 缓存由其他版本的路由解析而来时重新解析，避免路由更新前后的请求交替时读到旧配置
+        if (configs.route != route) {
+            configs = new RouteFilterConfigs(route);
+            filterConfigCache.put(route.getServiceName(), configs);
+        }
+        Optional<Object> config = configs.configMap.computeIfAbsent(name,
+                k -> Optional.ofNullable(findFilterConfigByClass(route.getFilterConfigs(), name, clazz)));
+        return clazz.cast(config.orElse(null));
     }
 
     public static RouteDefinition.FilterConfig buildDefaultGrayFilterConfig() {
@@ -45,4 +82,19 @@ public class FilterUtil {
         return filterConfig;
     }
 
+    /**
+     * 一个路由解析后的过滤器配置
+     */
+    private static class RouteFilterConfigs {
+
+        private final RouteDefinition route;
+
+        private final Map<String /* 过滤器名 */, Optional<Object>> configMap = new ConcurrentHashMap<>();
+
+        private RouteFilterConfigs(RouteDefinition route) {
+            this.route = route;
+        }
+
+    }
+
 }
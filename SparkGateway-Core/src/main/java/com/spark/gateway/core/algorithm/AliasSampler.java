@@ -0,0 +1,98 @@
+package com.spark.gateway.core.algorithm;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 别名采样器（Vose别名法）
+ * 构建时把各元素的权重摊成n个等概率的格子，每个格子最多由两个元素分享，
+ * 采样时随机选一个格子再抛一次硬币，按权重加权随机选择的代价为O(1)，权重可以是小数
+ * 构建后不可变
+ */
+public class AliasSampler<T> {
+
+    private final List<T> items; // 参与采样的元素
+
+    private final double[] probability; // 格子中留给本元素的概率
+
+    private final int[] alias; // 格子中另一部分概率对应的元素下标
+
+    private final boolean empty; // 权重之和不大于0，无法采样
+
+    /**
+     * @param items          参与采样的元素
+     * @param weightFunction 元素的权重，小于0按0处理
+     */
+    public AliasSampler(List<T> items, ToDoubleFunction<T> weightFunction) {
+        this.items = items;
+        int n = items.size();
+        this.probability = new double[n];
+        this.alias = new int[n];
+        double totalWeight = 0;
+        double[] scaled = new double[n];
+        for (int i = 0; i < n; i++) {
+            scaled[i] = Math.max(0D, weightFunction.applyAsDouble(items.get(i)));
+            totalWeight += scaled[i];
+        }
+        this.empty = totalWeight <= 0;
+        if (empty) {
+            return;
+        }
+        // 权重缩放到平均为1，小于1的放入small，其余放入large，用数组模拟两个栈
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallSize = 0;
+        int largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = scaled[i] * n / totalWeight;
+            if (scaled[i] < 1D) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+        // 每次用一个large元素补满一个small元素的格子
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1D;
+            if (scaled[more] < 1D) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+        // 剩下的格子由浮点误差产生，概率视为1
+        while (largeSize > 0) {
+            probability[large[--largeSize]] = 1D;
+        }
+        while (smallSize > 0) {
+            probability[small[--smallSize]] = 1D;
+        }
+    }
+
+    /**
+     * 按权重随机选择一个元素
+     *
+     * @return 选中的元素，权重之和不大于0时返回null
+     */
+    public T sample() {
+        if (empty) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int column = random.nextInt(probability.length);
+        return random.nextDouble() < probability[column] ? items.get(column) : items.get(alias[column]);
+    }
+
+    /**
+     * 构建采样器的元素列表，用于判断元素是否变化
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+}
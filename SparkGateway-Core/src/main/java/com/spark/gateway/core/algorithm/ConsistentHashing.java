@@ -1,64 +1,110 @@
 package com.spark.gateway.core.algorithm;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
-public class ConsistentHashing {
+/**
+ * 一致性哈希环
+ * 构建后不可变，虚拟节点的哈希值按升序存放在int数组中，对应的节点存放在平行数组中，
+ * 查找时二分定位第一个不小于键哈希值的虚拟节点，不产生任何对象
+ */
+public class ConsistentHashing<T> {
 
-    private final int virtualNodeNum;
+    // 虚拟节点哈希值，升序
+    private final int[] hashes;
 
-    // 哈希环
-    private final SortedMap<Integer, String> hashCircle = new TreeMap<>();
+    // 虚拟节点对应的实际节点
+    private final Object[] nodes;
 
-    // 构造函数，初始化一致性哈希环
-    public ConsistentHashing(List<String> nodes, int virtualNodeNum) {
-        this.virtualNodeNum = virtualNodeNum;
-        for (String node : nodes) {
-            addNode(node);
-        }
-    }
+    // 构建哈希环的实际节点列表
+    private final List<T> items;
 
     /**
-     * 在一致性哈希环中添加节点
-     * 通过将节点添加到哈希环中，实现负载均衡和高效的数据定位
+     * 构造函数，初始化一致性哈希环
      *
-     * @param node 实际节点的标识符，用于计算哈希值和标识节点
+     * @param nodes          实际节点
+     * @param idFunction     节点标识，用于计算虚拟节点的哈希值
+     * @param virtualNodeNum 每个实际节点的虚拟节点个数
      */
-    public void addNode(String node) {
-        // 遍历虚拟节点数量，为每个实际节点添加相应的虚拟节点
-        for (int i = 0; i < virtualNodeNum; i++) {
-            // 生成虚拟节点的标识符，通过连接实际节点标识符和虚拟节点序号
-            String virtualNode = node + "&&VN" + i;
-            // 将虚拟节点的哈希值和实际节点标识符映射到哈希环上
-            hashCircle.put(getHash(virtualNode), node);
+    public ConsistentHashing(List<T> nodes, Function<T, String> idFunction, int virtualNodeNum) {
+        this.items = nodes;
+        int size = nodes.size() * virtualNodeNum;
+        // 高32位为哈希值、低32位为节点下标，排序后拆成两个平行数组
+        long[] entries = new long[size];
+        int index = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            String id = idFunction.apply(nodes.get(i));
+            for (int j = 0; j < virtualNodeNum; j++) {
+                // 生成虚拟节点的标识符，通过连接实际节点标识符和虚拟节点序号
+                entries[index++] = ((long) getHash(id + "&&VN" + j) << 32) | i;
+            }
+        }
+        Arrays.sort(entries);
+        this.hashes = new int[size];
+        this.nodes = new Object[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = (int) (entries[i] >>> 32);
+            this.nodes[i] = nodes.get((int) entries[i]);
         }
     }
 
     /**
      * 根据键获取对应的节点
-     * 该方法主要用于在一致性哈希环中找到对应键的节点
-     * 如果哈希环为空，返回null
-     * 否则，计算键的哈希值，并在哈希环中找到第一个大于或等于该哈希值的节点
-     * 如果没有找到这样的节点，则返回哈希环中第一个节点
+     * 在哈希环中找到第一个大于或等于键哈希值的虚拟节点，找不到时回到环的第一个虚拟节点
      *
      * @param key 键，用于计算哈希值并找到对应的节点
-     * @return 对应键的节点，如果找不到则返回null
+     * @return 对应键的节点，如果哈希环为空则返回null
      */
-    public String getNode(String key) {
+    @SuppressWarnings("unchecked")
+    public T getNode(String key) {
         // 检查哈希环是否为空，如果为空则返回null
-        if (hashCircle.isEmpty()) {
+        if (hashes.length == 0) {
             return null;
         }
-        // 计算键的哈希值
-        int hash = getHash(key);
-        // 在哈希环中找到第一个大于或等于计算出哈希值的位置
-        SortedMap<Integer, String> tailMap = hashCircle.tailMap(hash);
-        // 如果没有找到这样的位置，说明键的哈希值在哈希环的末尾之后，需要返回哈希环的第一个节点
-        // 否则，返回找到的位置对应的节点
-        Integer nodeHash = tailMap.isEmpty() ? hashCircle.firstKey() : tailMap.firstKey();
-        // 返回找到的节点
-        return hashCircle.get(nodeHash);
+        int index = Arrays.binarySearch(hashes, getHash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        // 键的哈希值在哈希环的末尾之后，返回哈希环的第一个节点
+        if (index == hashes.length) {
+            index = 0;
+        }
+        return (T) nodes[index];
+    }
+
+    /**
+     * 根据键获取对应的节点，跳过不可接受的节点（有界负载一致性哈希）
+     * 从键的位置开始沿哈希环顺时针查找第一个可接受的节点，所有节点都不可接受时返回键原本对应的节点
+     *
+     * @param key    键
+     * @param accept 节点是否可接受，例如负载未超过上限
+     * @return 对应键的节点，如果哈希环为空则返回null
+     */
+    @SuppressWarnings("unchecked")
+    public T getNode(String key, Predicate<T> accept) {
+        if (hashes.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(hashes, getHash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            T node = (T) nodes[(index + i) % hashes.length];
+            if (accept.test(node)) {
+                return node;
+            }
+        }
+        return (T) nodes[index % hashes.length];
+    }
+
+    /**
+     * 构建哈希环的节点列表，用于判断节点是否变化
+     */
+    public List<T> getItems() {
+        return items;
     }
 
     /**
@@ -69,7 +115,7 @@ public class ConsistentHashing {
      * @param str 要计算哈希值的字符串
      * @return 字符串的哈希值，保证返回的哈希值为非负整数
      */
-    private int getHash(String str) {
+    public static int getHash(String str) {
         // 素数，用于乘法运算，以实现更好的哈希值分布
         final int p = 16777619;
         // 初始化哈希值，使用一个任意的非零值
@@ -85,12 +131,8 @@ public class ConsistentHashing {
         hash += hash << 3;
         hash ^= hash >> 17;
         hash += hash << 5;
-        // 确保哈希值为非负整数
-        if (hash < 0) {
-            hash = Math.abs(hash);
-        }
-        // 返回最终计算出的哈希值
-        return hash;
+        // 确保哈希值为非负整数，Integer.MIN_VALUE取绝对值仍为负数，单独处理
+        return hash == Integer.MIN_VALUE ? 0 : Math.abs(hash);
     }
 
-}
\ No newline at end of file
+}
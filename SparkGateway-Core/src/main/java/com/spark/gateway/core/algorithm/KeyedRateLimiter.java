@@ -0,0 +1,112 @@
+package com.spark.gateway.core.algorithm;
+
+
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.flow.RateLimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 按维度限流
+ * 每个维度取值（客户端IP、请求头、Cookie等）单独一个限流器，保存在固定大小的分段表中，
+ * 表满后按CLOCK算法淘汰最近未访问的限流器，大量不同取值涌入时内存占用保持不变
+ * 查找不加锁，只有新增取值时对所在分段加锁
+ */
+public class KeyedRateLimiter implements RateLimiter {
+
+    private static final int SEGMENT_NUM = 64; // 分段个数，2的幂
+
+    private final Function<GatewayContext, String> keyResolver; // 维度取值
+    private final Supplier<RateLimiter> limiterFactory; // 单个取值的限流器
+    private final Segment[] segments;
+
+    public KeyedRateLimiter(int maxKeys, Function<GatewayContext, String> keyResolver, Supplier<RateLimiter> limiterFactory) {
+        this.keyResolver = keyResolver;
+        this.limiterFactory = limiterFactory;
+        int segmentCapacity = Math.max(1, (maxKeys + SEGMENT_NUM - 1) / SEGMENT_NUM);
+        this.segments = new Segment[SEGMENT_NUM];
+        for (int i = 0; i < SEGMENT_NUM; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    @Override
+    public void tryConsume(GatewayContext context) {
+        String key = keyResolver.apply(context);
+        if (key == null) {
+            key = "";
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        segments[hash & (SEGMENT_NUM - 1)].get(key).tryConsume(context);
+    }
+
+    /**
+     * 一个分段，使用CLOCK算法近似LRU淘汰
+     */
+    private class Segment {
+
+        private final Map<String, Entry> entryMap = new ConcurrentHashMap<>();
+
+        private final Entry[] ring; // 时钟环
+
+        private int size;
+
+        private int hand; // 时钟指针
+
+        private Segment(int capacity) {
+            this.ring = new Entry[capacity];
+        }
+
+        private RateLimiter get(String key) {
+            Entry entry = entryMap.get(key);
+            if (entry == null) {
+                entry = insert(key);
+            }
+            entry.referenced = true;
+            return entry.limiter;
+        }
+
+        private synchronized Entry insert(String key) {
+            Entry entry = entryMap.get(key);
+            if (entry != null) {
+                return entry;
+            }
+            entry = new Entry(key, limiterFactory.get());
+            if (size < ring.length) {
+                ring[size++] = entry;
+            } else {
+                // 跳过最近访问过的限流器并清除其访问标记，淘汰第一个未被访问的
+                while (ring[hand].referenced) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % ring.length;
+                }
+                entryMap.remove(ring[hand].key);
+                ring[hand] = entry;
+                hand = (hand + 1) % ring.length;
+            }
+            entryMap.put(key, entry);
+            return entry;
+        }
+
+    }
+
+    private static class Entry {
+
+        private final String key;
+
+        private final RateLimiter limiter;
+
+        private volatile boolean referenced;
+
+        private Entry(String key, RateLimiter limiter) {
+            this.key = key;
+            this.limiter = limiter;
+        }
+
+    }
+
+}
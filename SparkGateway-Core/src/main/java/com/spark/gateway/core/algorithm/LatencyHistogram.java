@@ -0,0 +1,105 @@
+package com.spark.gateway.core.algorithm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图
+ * 按2的幂分桶，每个幂再分为4个子桶，相对误差不超过25%，记录只做一次原子自增，
+ * 每隔衰减间隔把所有桶的计数减半，使分位数跟随最近的延迟变化
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2; // 每个2的幂的子桶位数
+
+    private static final int SUB_BUCKET_NUM = 1 << SUB_BUCKET_BITS;
+
+    private static final long MAX_VALUE = (1L << 40) - 1; // 可记录的最大值，单位us，超过时记为最大值
+
+    // 各桶的计数
+    private final AtomicLongArray buckets = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+
+    private final long decayInterval; // 衰减间隔，单位纳秒
+
+    private final long minCount; // 计算分位数需要的最少样本数
+
+    private final AtomicLong nextDecay; // 下次衰减的时间，单位纳秒
+
+    /**
+     * @param decayInterval 衰减间隔，单位纳秒
+     * @param minCount      计算分位数需要的最少样本数
+     */
+    public LatencyHistogram(long decayInterval, long minCount) {
+        this.decayInterval = decayInterval;
+        this.minCount = minCount;
+        this.nextDecay = new AtomicLong(System.nanoTime() + decayInterval);
+    }
+
+    /**
+     * 记录一次延迟
+     *
+     * @param latencyNanos 延迟，单位纳秒
+     */
+    public void record(long latencyNanos) {
+        long now = System.nanoTime();
+        long decayAt = nextDecay.get();
+        // 到了衰减时间，只有更新成功的线程执行衰减
+        if (now - decayAt >= 0 && nextDecay.compareAndSet(decayAt, now + decayInterval)) {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.getAndUpdate(i, count -> count >> 1);
+            }
+        }
+        buckets.incrementAndGet(getIndex(Math.min(Math.max(latencyNanos / 1000, 0), MAX_VALUE)));
+    }
+
+    /**
+     * 计算分位数
+     *
+     * @param percentile 分位，0到1之间，例如0.95
+     * @return 分位数，单位纳秒，取所在桶的上界，样本数不足时返回-1
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0 || total < minCount) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= rank) {
+                return getUpperBound(i) * 1000;
+            }
+        }
+        return MAX_VALUE * 1000;
+    }
+
+    /**
+     * 值所在的桶，小于子桶数的值各占一个桶，其余的值按最高位分组，再按最高位之后的两位分为子桶
+     */
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_NUM) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_NUM + (int) ((value >>> shift) & (SUB_BUCKET_NUM - 1));
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    private static long getUpperBound(int index) {
+        if (index < SUB_BUCKET_NUM) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_NUM - 1;
+        long lowerBound = (long) (SUB_BUCKET_NUM + index % SUB_BUCKET_NUM) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.spark.gateway.core.algorithm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Maglev一致性哈希
+ * 每个节点按自己的偏移和步长生成一个槽位排列，各节点轮流认领排列中下一个空槽位，直到查找表填满，
+ * 节点之间分到的槽位数最多相差1，节点增减时只有少量槽位换主
+ * 构建后不可变，查找时对键哈希取模直接得到节点，代价为O(1)
+ */
+public class Maglev<T> {
+
+    private final List<T> items; // 构建查找表的节点列表
+
+    private final Object[] table; // 查找表
+
+    /**
+     * @param items      节点
+     * @param idFunction 节点标识，用于计算槽位排列，与节点顺序无关
+     * @param tableSize  查找表大小，需要是质数且远大于节点数
+     */
+    public Maglev(List<T> items, Function<T, String> idFunction, int tableSize) {
+        this.items = items;
+        // 按标识排序，保证不同网关节点、不同推送顺序下构建出相同的查找表
+        List<T> nodes = new ArrayList<>(items);
+        nodes.sort(Comparator.comparing(idFunction));
+        int n = nodes.size();
+        if (n == 0) {
+            this.table = new Object[0];
+            return;
+        }
+        long[] offset = new long[n];
+        long[] skip = new long[n];
+        long[] next = new long[n];
+        for (int i = 0; i < n; i++) {
+            String id = idFunction.apply(nodes.get(i));
+            offset[i] = ConsistentHashing.getHash(id + "&&offset") % tableSize;
+            skip[i] = ConsistentHashing.getHash(id + "&&skip") % (tableSize - 1) + 1;
+        }
+        // 各节点轮流认领自己排列中下一个空槽位
+        Object[] entries = new Object[tableSize];
+        int filled = 0;
+        while (filled < tableSize) {
+            for (int i = 0; i < n && filled < tableSize; i++) {
+                int slot = (int) ((offset[i] + next[i] * skip[i]) % tableSize);
+                while (entries[slot] != null) {
+                    next[i]++;
+                    slot = (int) ((offset[i] + next[i] * skip[i]) % tableSize);
+                }
+                entries[slot] = nodes.get(i);
+                next[i]++;
+                filled++;
+            }
+        }
+        this.table = entries;
+    }
+
+    /**
+     * 根据键获取对应的节点
+     *
+     * @param key 键
+     * @return 对应的节点，没有节点时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public T getNode(String key) {
+        if (table.length == 0) {
+            return null;
+        }
+        return (T) table[ConsistentHashing.getHash(key) % table.length];
+    }
+
+    /**
+     * 构建查找表的节点列表，用于判断节点是否变化
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+}
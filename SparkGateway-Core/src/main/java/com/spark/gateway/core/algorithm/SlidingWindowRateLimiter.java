@@ -6,38 +6,76 @@ import com.spark.exception.LimitedException;
 import com.spark.gateway.core.context.GatewayContext;
 import com.spark.gateway.core.filter.flow.RateLimiter;
 
-import java.time.Instant;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * 滑动窗口计数限流
+ * 把窗口切分成固定个数的子窗口，每个子窗口一个计数槽，槽的高32位是子窗口编号，低32位是计数，
+ * 子窗口过期后由第一个落在同一个槽上的请求原子地重置，内存占用与容量无关
+ * 统计与计数之间不加锁，并发时可能略微超出容量，换取各个EventLoop之间没有锁竞争
+ */
 public class SlidingWindowRateLimiter implements RateLimiter {
 
+    private static final int BUCKET_NUM = 10; // 子窗口个数
+
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
     private final int capacity; // 最大允许请求数
-    private final int windowSizeInMillis; // 窗口大小，单位：毫秒
-    private final Deque<Long> requestTimestamps; // 存储每个请求的时间戳
+    private final int bucketNum; // 实际子窗口个数
+    private final long bucketSizeInMillis; // 子窗口大小，单位：毫秒
+    private final long baseMillis = System.currentTimeMillis(); // 时间基准
+    private final AtomicLongArray buckets; // 子窗口计数槽
 
     public SlidingWindowRateLimiter(int capacity, int windowSizeInMillis) {
         this.capacity = capacity;
-        this.windowSizeInMillis = windowSizeInMillis;
-        this.requestTimestamps = new LinkedList<>();
+        this.bucketNum = Math.max(1, Math.min(BUCKET_NUM, windowSizeInMillis));
+        this.bucketSizeInMillis = Math.max(1, windowSizeInMillis / bucketNum);
+        this.buckets = new AtomicLongArray(bucketNum);
     }
 
     @Override
-    public synchronized void tryConsume(GatewayContext context) {
-        long now = Instant.now().toEpochMilli();
-        cleanOldRequests(now);
-        if (requestTimestamps.size() < capacity) {
-            requestTimestamps.addLast(now);
+    public void tryConsume(GatewayContext context) {
+        if (tryAcquire()) {
             context.doFilter();
         } else {
             throw new LimitedException(ResponseCode.TOO_MANY_REQUESTS);
         }
     }
 
-    private void cleanOldRequests(long currentTime) {
-        while (!requestTimestamps.isEmpty() && (currentTime - requestTimestamps.peekFirst()) > windowSizeInMillis) {
-            requestTimestamps.pollFirst();
+    /**
+     * 尝试在当前窗口内计数一次
+     *
+     * @return 窗口内请求数未达到容量时返回true
+     */
+    public boolean tryAcquire() {
+        int epoch = (int) ((System.currentTimeMillis() - baseMillis) / bucketSizeInMillis);
+        if (count(epoch) >= capacity) {
+            return false;
+        }
+        int index = Math.floorMod(epoch, bucketNum);
+        for (; ; ) {
+            long current = buckets.get(index);
+            // 槽里是过期的子窗口时从0开始计数
+            long next = (int) (current >>> 32) == epoch ? current + 1 : ((long) epoch << 32) | 1;
+            if (buckets.compareAndSet(index, current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 统计窗口内所有未过期子窗口的计数
+     */
+    private long count(int epoch) {
+        long total = 0;
+        for (int i = 0; i < bucketNum; i++) {
+            long value = buckets.get(i);
+            int age = epoch - (int) (value >>> 32);
+            if (age >= 0 && age < bucketNum) {
+                total += value & COUNT_MASK;
+            }
         }
+        return total;
     }
 
 }
@@ -6,41 +6,56 @@ import com.spark.exception.LimitedException;
 import com.spark.gateway.core.context.GatewayContext;
 import com.spark.gateway.core.filter.flow.RateLimiter;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * 不使用定时线程补充令牌，而是在请求到达时根据流逝的时间惰性计算，精度为纳秒
+ * 桶的状态压缩成一个long：已发放令牌对应的时间点，当前时间与它的差值除以令牌间隔就是桶内的令牌数，
+ * 每消耗一个令牌向后推一个令牌间隔，推到超过当前时间时说明令牌已耗尽
+ * 消耗令牌只需要一次CAS，不持有任何后台资源，限流器被移除后可以直接回收
+ */
 public class TokenBucketRateLimiter implements RateLimiter {
 
-    private final int capacity; // 桶的容量
-    private final int refillRate; // 令牌生成速率
-    private final AtomicInteger tokens; // 当前令牌数量
+    private final long intervalNanos; // 生成一个令牌的间隔
+    private final long burstNanos; // 生成满桶令牌需要的时长
+    private final long baseNanos = System.nanoTime(); // 时间基准
+    private final AtomicLong issuedNanos; // 已发放令牌对应的时间点，相对时间基准
 
     public TokenBucketRateLimiter(int capacity, int refillRatePerSecond) {
-        this.capacity = capacity;
-        this.refillRate = refillRatePerSecond;
-        this.tokens = new AtomicInteger(0);
-        startRefilling();
+        this.intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / Math.max(1, refillRatePerSecond));
+        this.burstNanos = intervalNanos * Math.max(1, capacity);
+        this.issuedNanos = new AtomicLong(-burstNanos); // 初始为满桶
     }
 
     @Override
     public void tryConsume(GatewayContext context) {
-        if (tokens.getAndDecrement() > 0) {
+        if (tryAcquire()) {
             context.doFilter();
         } else {
-            tokens.incrementAndGet();
             throw new LimitedException(ResponseCode.TOO_MANY_REQUESTS);
         }
     }
 
-    private void startRefilling() {
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.scheduleAtFixedRate(this::refillTokens, 0, 1000, TimeUnit.MILLISECONDS);
-    }
-
-    private void refillTokens() {
-        tokens.set(Math.min(capacity, tokens.get() + refillRate));
+    /**
+     * 尝试获取一个令牌
+     *
+     * @return 获取成功返回true
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime() - baseNanos;
+        for (; ; ) {
+            long current = issuedNanos.get();
+            // 空闲期间积累的令牌最多补满一桶
+            long next = Math.max(current, now - burstNanos) + intervalNanos;
+            if (next > now) {
+                return false;
+            }
+            if (issuedNanos.compareAndSet(current, next)) {
+                return true;
+            }
+        }
     }
 
 }
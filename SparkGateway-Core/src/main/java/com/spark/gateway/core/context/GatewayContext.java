@@ -1,13 +1,20 @@
 package com.spark.gateway.core.context;
 
 import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
 import com.spark.gateway.core.filter.FilterChain;
+import com.spark.gateway.core.filter.loadbalance.InstanceStats;
 import com.spark.gateway.core.helper.ContextHelper;
 import com.spark.gateway.core.request.GatewayRequest;
 import com.spark.gateway.core.response.GatewayResponse;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
 import lombok.Data;
 
+import java.util.concurrent.TimeUnit;
+
+import static com.spark.constant.HttpConstant.HTTP_REQUEST_TIMEOUT;
+
 @Data
 public class GatewayContext {
 
@@ -27,6 +34,16 @@ public class GatewayContext {
 
     private RouteDefinition route;
 
+    /**
+     * 负载均衡选中的服务实例
+     */
+    private ServiceInstance serviceInstance;
+
+    /**
+     * 选中实例的运行时统计
+     */
+    private InstanceStats instanceStats;
+
     private boolean keepAlive;
 
     private FilterChain filterChain;
@@ -34,12 +51,77 @@ public class GatewayContext {
     private int curFilterIndex = 0;
     private boolean isDoPreFilter = true;
 
+    /**
+     * 客户端请求是否已经释放
+     */
+    private boolean requestReleased;
+
+    /**
+     * 已经向下游发起调用的次数，重试时据此重新选择实例
+     */
+    private int routeAttempts;
+
+    /**
+     * 请求的截止时间，System.nanoTime()，为0时不限制
+     */
+    private long deadline;
+
     public GatewayContext(ChannelHandlerContext nettyCtx, GatewayRequest request,
                           RouteDefinition route, boolean keepAlive) {
         this.nettyCtx = nettyCtx;
         this.request = request;
         this.route = route;
         this.keepAlive = keepAlive;
+        this.deadline = buildDeadline(request, route);
+    }
+
+    /**
+     * 按路由的总超时时间和客户端请求头中的超时时间确定截止时间，都配置时取较早的一个
+     */
+    private static long buildDeadline(GatewayRequest request, RouteDefinition route) {
+        long timeout = route.getTimeout();
+        String clientTimeout = request.getHeaders().get(HTTP_REQUEST_TIMEOUT);
+        if (clientTimeout != null) {
+            try {
+                long value = Long.parseLong(clientTimeout.trim());
+                if (value > 0 && (timeout <= 0 || value < timeout)) {
+                    timeout = value;
+                }
+            } catch (NumberFormatException ignored) {
+                // 格式不正确时忽略客户端的超时时间
+            }
+        }
+        return timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+    }
+
+    /**
+     * 距离截止时间的剩余时间
+     *
+     * @return 剩余时间，单位ms，没有截止时间时返回Long.MAX_VALUE
+     */
+    public long getRemainingTime() {
+        if (deadline == 0) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * 是否已经超过截止时间
+     */
+    public boolean isDeadlineExceeded() {
+        return deadline != 0 && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * 释放客户端请求，重复调用只释放一次
+     */
+    public void releaseRequest() {
+        if (requestReleased) {
+            return;
+        }
+        requestReleased = true;
+        ReferenceCountUtil.release(request.getFullHttpRequest());
     }
 
     public void doFilter() {
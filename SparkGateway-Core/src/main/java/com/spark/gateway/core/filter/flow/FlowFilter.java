@@ -1,19 +1,23 @@
 package com.spark.gateway.core.filter.flow;
 
 import cn.hutool.core.collection.ConcurrentHashSet;
+import com.spark.enums.FlowKeyEnum;
 import com.spark.gateway.config.manager.DynamicConfigManager;
 import com.spark.gateway.config.pojo.RouteDefinition;
 import com.spark.gateway.config.util.FilterUtil;
+import com.spark.gateway.core.algorithm.KeyedRateLimiter;
 import com.spark.gateway.core.algorithm.LeakyBucketRateLimiter;
 import com.spark.gateway.core.algorithm.SlidingWindowRateLimiter;
 import com.spark.gateway.core.algorithm.TokenBucketRateLimiter;
 import com.spark.gateway.core.context.GatewayContext;
 import com.spark.gateway.core.filter.Filter;
 import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.cookie.Cookie;
 
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import static com.spark.constant.FilterConstant.FLOW_FILTER_NAME;
 import static com.spark.constant.FilterConstant.FLOW_FILTER_ORDER;
@@ -26,6 +30,8 @@ import static com.spark.constant.FilterConstant.FLOW_FILTER_ORDER;
  **/
 public class FlowFilter implements Filter {
 
+    private static final RouteDefinition.FlowFilterConfig DEFAULT_FLOW_FILTER_CONFIG = new RouteDefinition.FlowFilterConfig();
+
     private final ConcurrentHashMap<String /* 服务名 */, RateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
 
     private final Set<String> addListener = new ConcurrentHashSet<>();
@@ -41,10 +47,10 @@ public class FlowFilter implements Filter {
     @Override
     public void doPreFilter(GatewayContext context) {
 
-        // 查找并解析流控过滤配置，如果不存在则创建一个新的FlowFilterConfig对象
+        // 获取已解析的流控过滤配置，如果不存在则使用默认配置
         RouteDefinition.FlowFilterConfig flowFilterConfig = Optional
-                .ofNullable(FilterUtil.findFilterConfigByClass(context.getRoute().getFilterConfigs(), FLOW_FILTER_NAME, RouteDefinition.FlowFilterConfig.class))
-                .orElse(new RouteDefinition.FlowFilterConfig());
+                .ofNullable(FilterUtil.findFilterConfigByClass(context.getRoute(), FLOW_FILTER_NAME, RouteDefinition.FlowFilterConfig.class))
+                .orElse(DEFAULT_FLOW_FILTER_CONFIG);
 
         // 如果流控功能未启用，直接进行下一个过滤操作
         if (!flowFilterConfig.isEnabled()) {
@@ -89,14 +95,28 @@ public class FlowFilter implements Filter {
      * 初始化速率限制器
      * <p>
      * 根据路由定义中的流量过滤配置和事件循环来选择合适的速率限制算法实现
-     * 此方法使用了@ SuppressWarnings("DuplicateBranchesInSwitch")注解以忽略switch语句中的重复分支警告
+     * 配置了流控维度时，按维度取值分别限流
      *
      * @param flowFilterConfig 流量过滤配置，包含速率限制的类型、容量和速率
      * @param eventLoop        事件循环，用于处理泄漏桶速率限制算法中的异步任务
      * @return 根据配置创建的速率限制器实例
      */
-    @SuppressWarnings("DuplicateBranchesInSwitch")
     private RateLimiter initRateLimiter(RouteDefinition.FlowFilterConfig flowFilterConfig, EventLoop eventLoop) {
+        // 按服务整体限流
+        if (flowFilterConfig.getKeyType() == null || flowFilterConfig.getKeyType() == FlowKeyEnum.SERVICE) {
+            return initServiceRateLimiter(flowFilterConfig, eventLoop);
+        }
+        // 按维度限流，每个取值一个限流器
+        return new KeyedRateLimiter(flowFilterConfig.getMaxKeys(), buildKeyResolver(flowFilterConfig),
+                () -> initKeyRateLimiter(flowFilterConfig));
+    }
+
+    /**
+     * 初始化服务整体的速率限制器
+     * 此方法使用了@ SuppressWarnings("DuplicateBranchesInSwitch")注解以忽略switch语句中的重复分支警告
+     */
+    @SuppressWarnings("DuplicateBranchesInSwitch")
+    private RateLimiter initServiceRateLimiter(RouteDefinition.FlowFilterConfig flowFilterConfig, EventLoop eventLoop) {
         // 根据流量过滤配置的类型选择速率限制算法
         switch (flowFilterConfig.getType()) {
             case TOKEN_BUCKET -> {
@@ -118,4 +138,31 @@ public class FlowFilter implements Filter {
         }
     }
 
+    /**
+     * 初始化单个维度取值的速率限制器
+     * 漏桶需要常驻的定时任务，淘汰后无法回收，按维度限流时换算成相同速率的令牌桶
+     */
+    private RateLimiter initKeyRateLimiter(RouteDefinition.FlowFilterConfig flowFilterConfig) {
+        return switch (flowFilterConfig.getType()) {
+            case SLIDING_WINDOW -> new SlidingWindowRateLimiter(flowFilterConfig.getCapacity(), flowFilterConfig.getRate());
+            case LEAKY_BUCKET -> new TokenBucketRateLimiter(flowFilterConfig.getCapacity(), 1000 / Math.max(1, flowFilterConfig.getRate()));
+            default -> new TokenBucketRateLimiter(flowFilterConfig.getCapacity(), flowFilterConfig.getRate());
+        };
+    }
+
+    /**
+     * 根据流控维度构建取值函数
+     */
+    private Function<GatewayContext, String> buildKeyResolver(RouteDefinition.FlowFilterConfig flowFilterConfig) {
+        String keyName = flowFilterConfig.getKeyName();
+        return switch (flowFilterConfig.getKeyType()) {
+            case HEADER -> context -> context.getRequest().getHeaders().get(keyName);
+            case COOKIE -> context -> {
+                Cookie cookie = context.getRequest().getCookie(keyName);
+                return cookie == null ? null : cookie.value();
+            };
+            default -> context -> context.getRequest().getClientIp();
+        };
+    }
+
 }
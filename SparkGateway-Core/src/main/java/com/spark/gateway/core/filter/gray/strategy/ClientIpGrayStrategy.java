@@ -1,24 +1,22 @@
 package com.spark.gateway.core.filter.gray.strategy;
 
 import com.spark.gateway.config.pojo.RouteDefinition;
-import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.pojo.ServiceInstanceSnapshot;
 import com.spark.gateway.config.util.FilterUtil;
 import com.spark.gateway.core.context.GatewayContext;
 
-import java.util.List;
-
 import static com.spark.constant.FilterConstant.SPARK_FILTER_NAME;
 import static com.spark.constant.SparkConstant.CLIENT_IP_GRAY_STRATEGY;
+import static com.spark.constant.SparkConstant.MAX_GRAY_THRESHOLD;
 
 
 public class ClientIpGrayStrategy implements SparkStrategy {
 
     @Override
-    public boolean shouldRoute2Gray(GatewayContext context, List<ServiceInstance> instances) {
-        if (instances.stream().anyMatch(instance -> instance.isEnabled() && !instance.isGray())) {
-            RouteDefinition.GrayFilterConfig grayFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute().getFilterConfigs(), SPARK_FILTER_NAME, RouteDefinition.GrayFilterConfig.class);
-            double grayThreshold = instances.stream().mapToDouble(ServiceInstance::getThreshold).sum();
-            grayThreshold = Math.min(grayThreshold, grayFilterConfig.getMaxGrayThreshold());
+    public boolean shouldRoute2Gray(GatewayContext context, ServiceInstanceSnapshot snapshot) {
+        if (!snapshot.getNonGrayInstances().isEmpty()) {
+            RouteDefinition.GrayFilterConfig grayFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), SPARK_FILTER_NAME, RouteDefinition.GrayFilterConfig.class);
+            double grayThreshold = Math.min(snapshot.getTotalGrayThreshold(), grayFilterConfig == null ? MAX_GRAY_THRESHOLD : grayFilterConfig.getMaxGrayThreshold());
             return Math.abs(context.getRequest().getHost().hashCode()) % 100 <= grayThreshold * 100;
         }
         return true;
@@ -1,10 +1,8 @@
 package com.spark.gateway.core.filter.gray.strategy;
 
-import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.pojo.ServiceInstanceSnapshot;
 import com.spark.gateway.core.context.GatewayContext;
 
-import java.util.List;
-
 /**
  * @author: spark
  * @date: 2024/12/30 10:29
@@ -12,7 +10,7 @@ import java.util.List;
  **/
 public interface SparkStrategy {
 
-    boolean shouldRoute2Gray(GatewayContext context, List<ServiceInstance> instances);
+    boolean shouldRoute2Gray(GatewayContext context, ServiceInstanceSnapshot snapshot);
 
     String mark();
 
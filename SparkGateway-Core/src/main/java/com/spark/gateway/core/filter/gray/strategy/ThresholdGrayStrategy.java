@@ -1,12 +1,10 @@
 package com.spark.gateway.core.filter.gray.strategy;
 
 import com.spark.gateway.config.pojo.RouteDefinition;
-import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.pojo.ServiceInstanceSnapshot;
 import com.spark.gateway.config.util.FilterUtil;
 import com.spark.gateway.core.context.GatewayContext;
 
-import java.util.List;
-
 import static com.spark.constant.FilterConstant.SPARK_FILTER_NAME;
 import static com.spark.constant.SparkConstant.MAX_GRAY_THRESHOLD;
 import static com.spark.constant.SparkConstant.THRESHOLD_GRAY_STRATEGY;
@@ -17,12 +15,11 @@ import static com.spark.constant.SparkConstant.THRESHOLD_GRAY_STRATEGY;
 public class ThresholdGrayStrategy implements SparkStrategy {
 
     @Override
-    public boolean shouldRoute2Gray(GatewayContext context, List<ServiceInstance> instances) {
-        if (instances.stream().anyMatch(instance -> instance.isEnabled() && !instance.isGray())) {
-            RouteDefinition.GrayFilterConfig grayFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute().getFilterConfigs(), SPARK_FILTER_NAME, RouteDefinition.GrayFilterConfig.class);
+    public boolean shouldRoute2Gray(GatewayContext context, ServiceInstanceSnapshot snapshot) {
+        if (!snapshot.getNonGrayInstances().isEmpty()) {
+            RouteDefinition.GrayFilterConfig grayFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), SPARK_FILTER_NAME, RouteDefinition.GrayFilterConfig.class);
             double maxGrayThreshold = grayFilterConfig == null ? MAX_GRAY_THRESHOLD : grayFilterConfig.getMaxGrayThreshold();
-            double grayThreshold = instances.stream().mapToDouble(ServiceInstance::getThreshold).sum();
-            grayThreshold = Math.min(grayThreshold, maxGrayThreshold);
+            double grayThreshold = Math.min(snapshot.getTotalGrayThreshold(), maxGrayThreshold);
             return Math.abs(Math.random() - 1) <= grayThreshold;
         }
         return true;
@@ -0,0 +1,216 @@
+package com.spark.gateway.core.filter.loadbalance;
+
+import cn.hutool.core.collection.ConcurrentHashSet;
+import com.spark.gateway.config.manager.DynamicConfigManager;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.util.SystemUtil;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 实例主动健康检查
+ * 在下游客户端的EventLoop上定时对开启了健康检查的服务的每个实例做TCP连接或HTTP探测，
+ * 连续失败达到阈值时摘除实例，摘除后连续成功达到阈值时恢复，结果写入实例统计，负载均衡选择实例前过滤
+ */
+@Slf4j
+public class HealthChecker {
+
+    private static final HealthChecker INSTANCE = new HealthChecker();
+
+    private static final int TICK = 1000; // 检查哪些服务需要探测的间隔，单位ms
+
+    private static final int MAX_PROBE_CONTENT_LENGTH = 8192; // HTTP探测响应体最大长度
+
+    // 服务上次探测的时间
+    private final Map<String /* 服务名 */, Long> lastProbeMap = new ConcurrentHashMap<>();
+
+    private final Set<String> addListener = new ConcurrentHashSet<>();
+
+    private EventLoopGroup eventLoopGroup;
+
+    private Bootstrap bootstrap;
+
+    private ScheduledFuture<?> tickFuture;
+
+    private HealthChecker() {
+    }
+
+    public static HealthChecker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 启动健康检查
+     *
+     * @param eventLoopGroup 下游客户端的事件循环组，探测连接和定时任务都在其中执行
+     */
+    public synchronized void start(EventLoopGroup eventLoopGroup) {
+        if (tickFuture != null) {
+            return;
+        }
+        this.eventLoopGroup = eventLoopGroup;
+        this.bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(SystemUtil.useEpoll() ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true);
+        this.tickFuture = eventLoopGroup.next().scheduleWithFixedDelay(this::tick, TICK, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+    }
+
+    /**
+     * 找出到了探测间隔的服务，探测其所有启用的实例
+     */
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            for (RouteDefinition route : DynamicConfigManager.getInstance().getAllRoutes()) {
+                RouteDefinition.HealthCheckConfig healthCheck = route.getHealthCheck();
+                if (healthCheck == null || !healthCheck.isEnabled()) {
+                    continue;
+                }
+                String serviceName = route.getServiceName();
+                if (!addListener.contains(serviceName)) {
+                    DynamicConfigManager.getInstance().addRouteListener(serviceName, this::onRouteChange);
+                    addListener.add(serviceName);
+                }
+                Long lastProbe = lastProbeMap.get(serviceName);
+                if (lastProbe != null && now - lastProbe < healthCheck.getInterval()) {
+                    continue;
+                }
+                lastProbeMap.put(serviceName, now);
+                for (ServiceInstance instance : DynamicConfigManager.getInstance().getInstanceSnapshot(serviceName).getEnabledInstances()) {
+                    probe(healthCheck, instance, success -> {
+                        InstanceStats stats = InstanceStatsManager.getInstance().getStats(serviceName, instance);
+                        if (stats.recordProbe(success, healthCheck.getUnhealthyThreshold(), healthCheck.getHealthyThreshold())) {
+                            log.warn("instance {} of service {} is {}", instance.getInstanceId(), serviceName, success ? "healthy" : "unhealthy");
+                            InstanceStatsManager.getInstance().availabilityChanged(serviceName);
+                        }
+                    });
+                }
+            }
+        } catch (Exception e) { // 捕获异常，防止定时任务停止
+            log.error("health check occur exception: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 路由变更时按新配置重新开始探测，关闭了健康检查时清除探测结果，避免被摘除的实例永远无法恢复
+     */
+    private void onRouteChange(RouteDefinition route) {
+        lastProbeMap.remove(route.getServiceName());
+        RouteDefinition.HealthCheckConfig healthCheck = route.getHealthCheck();
+        if (healthCheck == null || !healthCheck.isEnabled()) {
+            InstanceStatsManager.getInstance().resetProbe(route.getServiceName());
+        }
+    }
+
+    /**
+     * 探测一个实例，配置了路径时发送HTTP GET，否则只建立TCP连接
+     */
+    private void probe(RouteDefinition.HealthCheckConfig healthCheck, ServiceInstance instance, Consumer<Boolean> callback) {
+        String path = healthCheck.getPath();
+        boolean http = path != null && !path.isEmpty();
+        EventLoop eventLoop = eventLoopGroup.next();
+        ProbeHandler probeHandler = new ProbeHandler(callback);
+        ChannelFuture connectFuture = bootstrap.clone(eventLoop)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, healthCheck.getTimeout())
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        if (http) {
+                            ch.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(MAX_PROBE_CONTENT_LENGTH));
+                        }
+                        ch.pipeline().addLast(probeHandler);
+                    }
+                })
+                .connect(instance.getIp(), instance.getPort());
+        connectFuture.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                probeHandler.complete(future.channel(), false);
+                return;
+            }
+            if (!http) {
+                probeHandler.complete(future.channel(), true);
+                return;
+            }
+            // 整个HTTP探测的超时
+            eventLoop.schedule(() -> probeHandler.complete(future.channel(), false), healthCheck.getTimeout(), TimeUnit.MILLISECONDS);
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path, Unpooled.EMPTY_BUFFER);
+            request.headers().set(HttpHeaderNames.HOST, instance.getIp() + ":" + instance.getPort());
+            request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            request.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+            future.channel().writeAndFlush(request).addListener((ChannelFutureListener) write -> {
+                if (!write.isSuccess()) {
+                    probeHandler.complete(write.channel(), false);
+                }
+            });
+        });
+    }
+
+    /**
+     * 探测连接的处理器，只回调一次结果并关闭连接
+     */
+    private static class ProbeHandler extends ChannelInboundHandlerAdapter {
+
+        private final Consumer<Boolean> callback;
+
+        private boolean completed; // 只在探测连接所在的EventLoop上访问
+
+        private ProbeHandler(Consumer<Boolean> callback) {
+            this.callback = callback;
+        }
+
+        private void complete(Channel channel, boolean success) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            channel.close();
+            callback.accept(success);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof FullHttpResponse response) {
+                    int code = response.status().code();
+                    complete(ctx.channel(), code >= 200 && code < 400);
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            complete(ctx.channel(), false);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            complete(ctx.channel(), false);
+        }
+
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.spark.gateway.core.filter.loadbalance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务实例的运行时统计
+ * 与实例配置分开保存，注册中心推送新的实例对象时统计不会丢失
+ */
+public class InstanceStats {
+
+    private final AtomicInteger inflight = new AtomicInteger(0); // 正在进行的下游请求数
+
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(0D)); // 延迟的峰值指数加权移动平均，单位纳秒，按double的位保存
+
+    private volatile long ewmaStamp = System.nanoTime(); // 上次更新延迟均值的时间
+
+    private volatile boolean probeHealthy = true; // 主动探测的结果
+
+    private final AtomicInteger probeCounter = new AtomicInteger(0); // 健康时为连续探测失败次数，摘除后为连续探测成功次数
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger(0); // 连续的5xx或连接失败次数
+
+    private final AtomicInteger ejectionCount = new AtomicInteger(0); // 连续被剔除的次数，用于计算剔除时长
+
+    private volatile boolean ejected; // 是否被被动剔除
+
+    private volatile long ejectedUntil; // 被动剔除的截止时间
+
+    private volatile boolean circuitOpen; // 实例断路器是否处于开启状态
+
+    private final boolean slowStart; // 是否需要慢启动，服务首次使用时已存在的实例不需要
+
+    private final long createNanos = System.nanoTime(); // 首次发现实例的时间
+
+    public InstanceStats() {
+        this(false);
+    }
+
+    public InstanceStats(boolean slowStart) {
+        this.slowStart = slowStart;
+    }
+
+    /**
+     * 下游请求开始
+     */
+    public void requestStart() {
+        inflight.incrementAndGet();
+    }
+
+    /**
+     * 下游请求结束，无论成功还是失败
+     */
+    public void requestEnd() {
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * 下游请求结束并记录延迟
+     * 延迟高于当前均值时直接取为峰值，低于均值时按距上次更新的时间指数衰减到新值，
+     * 失败的请求不会拉低均值，避免快速失败的实例显得很快
+     *
+     * @param latencyNanos 请求延迟，单位纳秒
+     * @param success      请求是否成功
+     * @param decayNanos   衰减时间，单位纳秒
+     */
+    public void requestEnd(long latencyNanos, boolean success, long decayNanos) {
+        inflight.decrementAndGet();
+        long now = System.nanoTime();
+        double elapsed = Math.max(0, now - ewmaStamp);
+        double weight = Math.exp(-elapsed / Math.max(1, decayNanos));
+        while (true) {
+            long bits = ewmaBits.get();
+            double cost = Double.longBitsToDouble(bits);
+            double next;
+            if (latencyNanos > cost) {
+                next = latencyNanos;
+            } else if (success) {
+                next = cost * weight + latencyNanos * (1 - weight);
+            } else {
+                break;
+            }
+            if (ewmaBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                break;
+            }
+        }
+        ewmaStamp = now;
+    }
+
+    /**
+     * 记录一次主动探测的结果
+     *
+     * @param success            探测是否成功
+     * @param unhealthyThreshold 连续失败多少次后摘除
+     * @param healthyThreshold   摘除后连续成功多少次后恢复
+     * @return 实例的健康状态是否发生变化
+     */
+    public boolean recordProbe(boolean success, int unhealthyThreshold, int healthyThreshold) {
+        if (probeHealthy == success) {
+            probeCounter.set(0);
+            return false;
+        }
+        if (probeCounter.incrementAndGet() < Math.max(1, success ? healthyThreshold : unhealthyThreshold)) {
+            return false;
+        }
+        probeCounter.set(0);
+        probeHealthy = success;
+        return true;
+    }
+
+    /**
+     * 清除主动探测的结果，服务关闭健康检查时调用，被摘除的实例恢复参与负载均衡
+     *
+     * @return 实例的健康状态是否发生变化
+     */
+    public boolean resetProbe() {
+        probeCounter.set(0);
+        if (probeHealthy) {
+            return false;
+        }
+        probeHealthy = true;
+        return true;
+    }
+
+    /**
+     * 记录一次下游调用的结果，连续失败达到阈值时剔除实例
+     * 剔除时长从基础时长开始每次翻倍，恢复后超过最长剔除时长没有再被剔除则重新从基础时长开始
+     *
+     * @param success             调用是否成功，5xx和连接失败视为失败
+     * @param threshold           连续失败多少次后剔除
+     * @param baseEjectionNanos   首次剔除时长，单位纳秒
+     * @param maxEjectionNanos    最长剔除时长，单位纳秒
+     * @return 是否因本次调用剔除了实例
+     */
+    public boolean recordOutcome(boolean success, int threshold, long baseEjectionNanos, long maxEjectionNanos) {
+        if (success) {
+            consecutiveFailures.set(0);
+            return false;
+        }
+        if (consecutiveFailures.incrementAndGet() < Math.max(1, threshold)) {
+            return false;
+        }
+        consecutiveFailures.set(0);
+        long now = System.nanoTime();
+        if (isEjected(now)) {
+            return false;
+        }
+        if (ejected && now - ejectedUntil > maxEjectionNanos) {
+            ejectionCount.set(0);
+        }
+        int count = Math.min(ejectionCount.getAndIncrement(), 30);
+        long ejectionNanos = Math.min(maxEjectionNanos, baseEjectionNanos << count);
+        ejectedUntil = now + (ejectionNanos < 0 ? maxEjectionNanos : ejectionNanos);
+        ejected = true;
+        return true;
+    }
+
+    /**
+     * 是否处于被动剔除中
+     */
+    public boolean isEjected(long now) {
+        return ejected && now - ejectedUntil < 0;
+    }
+
+    /**
+     * 被动剔除的截止时间
+     */
+    public long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    /**
+     * 更新实例断路器的状态
+     *
+     * @return 状态是否发生变化
+     */
+    public boolean setCircuitOpen(boolean circuitOpen) {
+        if (this.circuitOpen == circuitOpen) {
+            return false;
+        }
+        this.circuitOpen = circuitOpen;
+        return true;
+    }
+
+    /**
+     * 实例是否可以参与负载均衡，主动探测健康、没有被被动剔除且实例断路器没有开启
+     */
+    public boolean isAvailable(long now) {
+        return probeHealthy && !circuitOpen && !isEjected(now);
+    }
+
+    /**
+     * 慢启动的权重系数
+     *
+     * @param now         当前时间，单位纳秒
+     * @param windowNanos 慢启动时长，单位纳秒
+     * @param aggression  曲线，1为线性
+     * @param minFactor   系数下限
+     * @return 权重系数，不在慢启动期间时为1
+     */
+    public double getWeightFactor(long now, long windowNanos, double aggression, double minFactor) {
+        long elapsed = now - createNanos;
+        if (!slowStart || windowNanos <= 0 || elapsed >= windowNanos) {
+            return 1D;
+        }
+        double timeFactor = (double) Math.max(elapsed, 1) / windowNanos;
+        double factor = aggression == 1D || aggression <= 0 ? timeFactor : Math.pow(timeFactor, 1D / aggression);
+        return Math.min(1D, Math.max(minFactor, factor));
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * 当前的延迟均值，没有请求在进行时按空闲时间衰减，避免一次慢请求后实例长期得不到流量
+     *
+     * @param decayNanos 衰减时间，单位纳秒
+     * @return 延迟均值，单位纳秒
+     */
+    public double getEwma(long decayNanos) {
+        double cost = Double.longBitsToDouble(ewmaBits.get());
+        if (inflight.get() > 0) {
+            return cost;
+        }
+        double elapsed = Math.max(0, System.nanoTime() - ewmaStamp);
+        return cost * Math.exp(-elapsed / Math.max(1, decayNanos));
+    }
+
+}
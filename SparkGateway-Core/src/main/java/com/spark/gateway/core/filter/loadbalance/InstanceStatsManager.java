@@ -0,0 +1,250 @@
+package com.spark.gateway.core.filter.loadbalance;
+
+import cn.hutool.core.collection.ConcurrentHashSet;
+import com.spark.gateway.config.manager.DynamicConfigManager;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 服务实例运行时统计管理
+ * 按服务名、实例id保存统计，实例下线时通过实例监听器清除
+ */
+public class InstanceStatsManager {
+
+    private static final InstanceStatsManager INSTANCE = new InstanceStatsManager();
+
+    private static final int MAX_CACHED_SOURCES = 4; // 每个服务缓存过滤结果的实例列表个数，灰度、普通请求各用一个列表，实例变化期间新旧列表并存
+
+    // 服务对应的实例统计
+    private final Map<String /* 服务名 */, ServiceStats> statsMap = new ConcurrentHashMap<>();
+
+    private final Set<String> addListener = new ConcurrentHashSet<>();
+
+    private InstanceStatsManager() {
+    }
+
+    public static InstanceStatsManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 获取实例的统计，不存在时创建，服务的统计创建之后才出现的实例从慢启动开始
+     *
+     * @param serviceName 服务名
+     * @param instance    服务实例
+     * @return 实例统计
+     */
+    public InstanceStats getStats(String serviceName, ServiceInstance instance) {
+        return getServiceStats(serviceName).getOrCreate(instance.getInstanceId());
+    }
+
+    /**
+     * 实例的可用状态发生变化（探测摘除、恢复或被动剔除）时调用，下次选择实例时重新过滤
+     *
+     * @param serviceName 服务名
+     */
+    public void availabilityChanged(String serviceName) {
+        getServiceStats(serviceName).version.incrementAndGet();
+    }
+
+    /**
+     * 更新实例断路器的状态，实例已经下线时忽略
+     *
+     * @param serviceName 服务名
+     * @param instanceId  实例id
+     * @param circuitOpen 断路器是否开启
+     */
+    public void setCircuitOpen(String serviceName, String instanceId, boolean circuitOpen) {
+        InstanceStats stats = getServiceStats(serviceName).instanceStatsMap.get(instanceId);
+        if (stats != null && stats.setCircuitOpen(circuitOpen)) {
+            availabilityChanged(serviceName);
+        }
+    }
+
+    /**
+     * 清除服务所有实例的主动探测结果，服务关闭健康检查后不再有探测把实例恢复
+     *
+     * @param serviceName 服务名
+     */
+    public void resetProbe(String serviceName) {
+        ServiceStats serviceStats = statsMap.get(serviceName);
+        if (serviceStats == null) {
+            return;
+        }
+        boolean changed = false;
+        for (InstanceStats stats : serviceStats.instanceStatsMap.values()) {
+            changed |= stats.resetProbe();
+        }
+        if (changed) {
+            availabilityChanged(serviceName);
+        }
+    }
+
+    /**
+     * 过滤掉被摘除或剔除的实例
+     * 结果按实例列表（按引用区分）和可用状态版本缓存，灰度和普通请求的列表各自缓存一份，互不挤占，
+     * 没有实例被摘除时直接返回传入的列表，
+     * 所有实例都不可用时也返回传入的列表，避免把全部流量拒绝掉
+     *
+     * @param serviceName 服务名
+     * @param instances   服务实例列表
+     * @return 可用的服务实例列表
+     */
+    public List<ServiceInstance> getAvailableInstances(String serviceName, List<ServiceInstance> instances) {
+        ServiceStats serviceStats = getServiceStats(serviceName);
+        long version = serviceStats.version.get();
+        long now = System.nanoTime();
+        AvailableInstances[] cached = serviceStats.available;
+        for (AvailableInstances available : cached) {
+            if (available.source == instances && available.version == version
+                    && (available.expireAt == 0 || now - available.expireAt < 0)) {
+                return available.instances;
+            }
+        }
+        List<ServiceInstance> result = new ArrayList<>(instances.size());
+        long expireAt = 0; // 最早的被动剔除截止时间，到期后重新过滤
+        for (ServiceInstance instance : instances) {
+            InstanceStats stats = serviceStats.getOrCreate(instance.getInstanceId());
+            if (stats.isAvailable(now)) {
+                result.add(instance);
+            }
+            if (stats.isEjected(now) && (expireAt == 0 || stats.getEjectedUntil() - expireAt < 0)) {
+                expireAt = stats.getEjectedUntil();
+            }
+        }
+        List<ServiceInstance> availableInstances = result.size() == instances.size() || result.isEmpty() ? instances : null;
+        if (availableInstances == null) {
+            // 过滤结果与该列表上一次的结果相同时沿用上一次的列表，避免按列表引用缓存的负载均衡数据被重建
+            for (AvailableInstances available : cached) {
+                if (available.source == instances && sameInstances(available.instances, result)) {
+                    availableInstances = available.instances;
+                    break;
+                }
+            }
+            if (availableInstances == null) {
+                availableInstances = List.copyOf(result);
+            }
+        }
+        // 新结果放在最前面，保留其他列表的结果，超出个数时丢弃最早的
+        List<AvailableInstances> updated = new ArrayList<>(MAX_CACHED_SOURCES);
+        updated.add(new AvailableInstances(instances, version, expireAt, availableInstances));
+        for (AvailableInstances available : cached) {
+            if (available.source != instances && available.version == version && updated.size() < MAX_CACHED_SOURCES) {
+                updated.add(available);
+            }
+        }
+        serviceStats.available = updated.toArray(new AvailableInstances[0]);
+        return availableInstances;
+    }
+
+    private static boolean sameInstances(List<ServiceInstance> a, List<ServiceInstance> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ServiceStats getServiceStats(String serviceName) {
+        ServiceStats serviceStats = statsMap.get(serviceName);
+        if (serviceStats == null) {
+            serviceStats = statsMap.computeIfAbsent(serviceName, this::newServiceStats);
+        }
+        return serviceStats;
+    }
+
+    /**
+     * 首次创建服务的统计时订阅实例变化，只保留仍存在的实例的统计
+     * 此时已存在的实例不需要慢启动
+     */
+    private ServiceStats newServiceStats(String serviceName) {
+        if (!addListener.contains(serviceName)) {
+            DynamicConfigManager.getInstance().addInstanceListener(serviceName, this::retainInstances);
+            addListener.add(serviceName);
+        }
+        ServiceStats serviceStats = new ServiceStats();
+        for (ServiceInstance instance : DynamicConfigManager.getInstance().getInstanceSnapshot(serviceName).getAllInstances()) {
+            serviceStats.instanceStatsMap.put(instance.getInstanceId(), new InstanceStats());
+        }
+        return serviceStats;
+    }
+
+    private void retainInstances(String serviceName) {
+        ServiceStats serviceStats = statsMap.get(serviceName);
+        if (serviceStats == null) {
+            return;
+        }
+        Set<String> instanceIds = DynamicConfigManager.getInstance().getInstanceSnapshot(serviceName)
+                .getAllInstances().stream().map(ServiceInstance::getInstanceId).collect(Collectors.toSet());
+        serviceStats.instanceStatsMap.keySet().retainAll(instanceIds);
+        for (String instanceId : instanceIds) {
+            serviceStats.getOrCreate(instanceId);
+        }
+    }
+
+    /**
+     * 实例的慢启动权重系数
+     *
+     * @param serviceName             服务名
+     * @param instance                服务实例
+     * @param loadBalanceFilterConfig 负载均衡配置，为空时不开启慢启动
+     * @param now                     当前时间，单位纳秒
+     * @return 权重系数，不在慢启动期间时为1
+     */
+    public double getWeightFactor(String serviceName, ServiceInstance instance, RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig, long now) {
+        if (loadBalanceFilterConfig == null || loadBalanceFilterConfig.getSlowStartWindow() <= 0) {
+            return 1D;
+        }
+        return getStats(serviceName, instance).getWeightFactor(now,
+                TimeUnit.MILLISECONDS.toNanos(loadBalanceFilterConfig.getSlowStartWindow()),
+                loadBalanceFilterConfig.getSlowStartAggression(),
+                loadBalanceFilterConfig.getSlowStartMinWeightPercent() / 100D);
+    }
+
+    /**
+     * 一个服务的统计
+     */
+    private static class ServiceStats {
+
+        private final Map<String /* 实例id */, InstanceStats> instanceStatsMap = new ConcurrentHashMap<>();
+
+        private final AtomicLong version = new AtomicLong(0); // 可用状态版本
+
+        private volatile AvailableInstances[] available = new AvailableInstances[0]; // 最近过滤的结果，每个实例列表一份
+
+        /**
+         * 获取实例的统计，不存在时创建
+         * 服务统计创建时已存在的实例在创建时登记，不需要慢启动；此后第一次出现的实例，
+         * 无论是先被请求看到还是先收到实例变化通知，都从慢启动开始
+         */
+        private InstanceStats getOrCreate(String instanceId) {
+            InstanceStats stats = instanceStatsMap.get(instanceId);
+            if (stats == null) {
+                stats = instanceStatsMap.computeIfAbsent(instanceId, k -> new InstanceStats(true));
+            }
+            return stats;
+        }
+
+    }
+
+    /**
+     * 过滤后的可用实例
+     */
+    private record AvailableInstances(List<ServiceInstance> source, long version, long expireAt,
+                                      List<ServiceInstance> instances) {
+    }
+
+}
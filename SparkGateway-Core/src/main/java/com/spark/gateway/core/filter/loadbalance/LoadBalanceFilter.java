@@ -1,11 +1,11 @@
 package com.spark.gateway.core.filter.loadbalance;
 
-import cn.hutool.json.JSONUtil;
 import com.spark.enums.ResponseCode;
 import com.spark.exception.NotFoundException;
 import com.spark.gateway.config.manager.DynamicConfigManager;
 import com.spark.gateway.config.pojo.RouteDefinition;
 import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.pojo.ServiceInstanceSnapshot;
 import com.spark.gateway.config.util.FilterUtil;
 import com.spark.gateway.core.context.GatewayContext;
 import com.spark.gateway.core.filter.Filter;
@@ -22,34 +22,73 @@ import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_ORDER;
 @Slf4j
 public class LoadBalanceFilter implements Filter {
 
+    private static final RouteDefinition.LoadBalanceFilterConfig DEFAULT_LOAD_BALANCE_FILTER_CONFIG = new RouteDefinition.LoadBalanceFilterConfig();
+
+    private static final LoadBalanceStrategy GRAY_LOAD_BALANCE_STRATEGY = new GrayLoadBalanceStrategy();
+
+    private static final int MAX_SELECT_ANOTHER_TIMES = 3; // 选择另一个实例时调用负载均衡策略的最大次数
+
     @Override
     public void doPreFilter(GatewayContext context) {
-        RouteDefinition.FilterConfig filterConfig = FilterUtil.findFilterConfigByName(context.getRoute().getFilterConfigs(), LOAD_BALANCE_FILTER_NAME);
-        if (filterConfig == null) {
-            filterConfig = FilterUtil.buildDefaultLoadBalanceFilterConfig();
+        ServiceInstance serviceInstance = selectInstance(context, null);
+        if (null == serviceInstance) {
+            throw new NotFoundException(ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
         }
-        // 获取服务所有实例
-        List<ServiceInstance> instances = DynamicConfigManager.getInstance()
-                .getInstancesByServiceName(context.getRequest().getServiceDefinition().getServiceName())
-                .values().stream().toList();
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        context.setServiceInstance(serviceInstance);
+        context.setInstanceStats(InstanceStatsManager.getInstance().getStats(serviceName, serviceInstance));
+        context.getRequest().setModifyHost(serviceInstance.getIp() + ":" + serviceInstance.getPort());
+        context.doFilter();
+    }
+
+    /**
+     * 按路由的负载均衡配置选择一个实例
+     *
+     * @param context 网关上下文
+     * @param exclude 需要避开的实例，例如对冲请求避开首次请求的实例，为空时不避开
+     * @return 选中的实例，没有可选的实例时返回null
+     */
+    public static ServiceInstance selectInstance(GatewayContext context, ServiceInstance exclude) {
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        if (loadBalanceFilterConfig == null) {
+            loadBalanceFilterConfig = DEFAULT_LOAD_BALANCE_FILTER_CONFIG;
+        }
+        // 获取服务实例快照
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        ServiceInstanceSnapshot snapshot = DynamicConfigManager.getInstance().getInstanceSnapshot(serviceName);
 
         LoadBalanceStrategy strategy;
+        List<ServiceInstance> instances;
         if (context.getRequest().isGray()) {
-            strategy = new GrayLoadBalanceStrategy(); // 灰度负载均衡策略
-            // 如果请求是灰度的，再进行一遍过滤
-            instances = instances.stream().filter(instance -> instance.isEnabled() && instance.isGray()).toList();
+            strategy = GRAY_LOAD_BALANCE_STRATEGY; // 灰度负载均衡策略
+            // 如果请求是灰度的，只在启用的灰度实例中选择
+            instances = snapshot.getGrayInstances();
         } else {
-            strategy = selectLoadBalanceStrategy(JSONUtil.toBean(filterConfig.getConfig(), RouteDefinition.LoadBalanceFilterConfig.class));
+            strategy = selectLoadBalanceStrategy(loadBalanceFilterConfig);
+            // 普通请求优先选择启用的非灰度实例
+            instances = snapshot.getNormalInstances();
         }
+        // 过滤掉健康检查摘除和被动剔除的实例
+        instances = InstanceStatsManager.getInstance().getAvailableInstances(serviceName, instances);
         if (instances.isEmpty()) {
-            throw new NotFoundException(ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
+            return null;
         }
-        ServiceInstance serviceInstance = strategy.selectInstance(context, instances);
-        if (null == serviceInstance) {
-            throw new NotFoundException(ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
+        if (exclude == null) {
+            return strategy.selectInstance(context, instances);
         }
-        context.getRequest().setModifyHost(serviceInstance.getIp() + ":" + serviceInstance.getPort());
-        context.doFilter();
+        // 需要避开某个实例时，先交给负载均衡策略选择，多次仍选中该实例（例如哈希类策略）时取列表中的其他实例
+        for (int i = 0; i < MAX_SELECT_ANOTHER_TIMES; i++) {
+            ServiceInstance selected = strategy.selectInstance(context, instances);
+            if (selected != null && !selected.getInstanceId().equals(exclude.getInstanceId())) {
+                return selected;
+            }
+        }
+        for (ServiceInstance instance : instances) {
+            if (!instance.getInstanceId().equals(exclude.getInstanceId())) {
+                return instance;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -67,7 +106,7 @@ public class LoadBalanceFilter implements Filter {
         return LOAD_BALANCE_FILTER_ORDER;
     }
 
-    private LoadBalanceStrategy selectLoadBalanceStrategy(RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig) {
+    private static LoadBalanceStrategy selectLoadBalanceStrategy(RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig) {
         return LoadBalanceStrategyManager.getStrategy(loadBalanceFilterConfig.getStrategyName());
     }
 
@@ -1,12 +1,18 @@
 package com.spark.gateway.core.filter.loadbalance.strategy;
 
+import cn.hutool.core.collection.ConcurrentHashSet;
+import com.spark.gateway.config.manager.DynamicConfigManager;
 import com.spark.gateway.config.pojo.RouteDefinition;
 import com.spark.gateway.config.pojo.ServiceInstance;
 import com.spark.gateway.config.util.FilterUtil;
 import com.spark.gateway.core.algorithm.ConsistentHashing;
 import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_NAME;
 import static com.spark.constant.LoadBalanceConstant.CLIENT_IP_CONSISTENT_HASH_LOAD_BALANCE_STRATEGY;
@@ -14,6 +20,11 @@ import static com.spark.constant.LoadBalanceConstant.CLIENT_IP_CONSISTENT_HASH_L
 
 public class ClientIpConsistentHashLoadBalanceStrategy implements LoadBalanceStrategy {
 
+    // 服务对应的哈希环，实例或路由变化时清除
+    private final Map<String /* 服务名 */, ConsistentHashing<ServiceInstance>> hashingMap = new ConcurrentHashMap<>();
+
+    private final Set<String> addListener = new ConcurrentHashSet<>();
+
     /**
      * 选择实例方法，基于一致性哈希算法进行负载均衡
      *
@@ -23,32 +34,57 @@ public class ClientIpConsistentHashLoadBalanceStrategy implements LoadBalanceStr
      */
     @Override
     public ServiceInstance selectInstance(GatewayContext context, List<ServiceInstance> instances) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        ConsistentHashing<ServiceInstance> consistentHashing = hashingMap.get(serviceName);
+        // 传入的实例列表与构建哈希环的不是同一个时重建，例如实例变化通知到达之前，或者可用实例发生变化
+        if (consistentHashing == null || consistentHashing.getItems() != instances) {
+            consistentHashing = buildConsistentHashing(context, instances);
+            hashingMap.put(serviceName, consistentHashing);
+        }
+        // 根据请求的主机选择节点，配置了负载上限时跳过超过上限的实例
+        double boundedLoadFactor = getBoundedLoadFactor(context);
+        ServiceInstance selected;
+        if (boundedLoadFactor > 1 && instances.size() > 1) {
+            InstanceStatsManager statsManager = InstanceStatsManager.getInstance();
+            int totalInflight = 0;
+            for (ServiceInstance instance : instances) {
+                totalInflight += statsManager.getStats(serviceName, instance).getInflight();
+            }
+            // 加上本次请求后每个实例允许的请求数上限
+            int capacity = (int) Math.ceil(boundedLoadFactor * (totalInflight + 1) / instances.size());
+            selected = consistentHashing.getNode(context.getRequest().getHost(),
+                    instance -> statsManager.getStats(serviceName, instance).getInflight() < capacity);
+        } else {
+            selected = consistentHashing.getNode(context.getRequest().getHost());
+        }
+        // 如果没有找到匹配的实例，返回第一个实例作为默认选择
+        return selected == null ? instances.get(0) : selected;
+    }
+
+    /**
+     * 构建服务的哈希环，首次构建时订阅实例和路由变化
+     */
+    private ConsistentHashing<ServiceInstance> buildConsistentHashing(GatewayContext context, List<ServiceInstance> instances) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        if (!addListener.contains(serviceName)) {
+            DynamicConfigManager.getInstance().addInstanceListener(serviceName, hashingMap::remove);
+            DynamicConfigManager.getInstance().addRouteListener(serviceName, newRoute -> hashingMap.remove(newRoute.getServiceName()));
+            addListener.add(serviceName);
+        }
         // 获取路由定义中的一致性哈希过滤器配置
-        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute().getFilterConfigs(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
         // 默认虚拟节点数量为1
         int virtualNodeNum = 1;
         // 如果配置存在且配置了虚拟节点数量，则使用配置的值
         if (loadBalanceFilterConfig != null && loadBalanceFilterConfig.getVirtualNodeNum() > 0) {
             virtualNodeNum = loadBalanceFilterConfig.getVirtualNodeNum();
         }
+        return new ConsistentHashing<>(instances, ServiceInstance::getInstanceId, virtualNodeNum);
+    }
 
-        // 将实例列表转换为实例ID列表，用于一致性哈希算法
-        List<String> nodes = instances.stream().map(ServiceInstance::getInstanceId).toList();
-        // 创建一致性哈希对象，传入实例ID列表和虚拟节点数量
-        ConsistentHashing consistentHashing = new ConsistentHashing(nodes, virtualNodeNum);
-        // 根据请求的主机哈希值选择节点
-        String selectedNode = consistentHashing.getNode(String.valueOf(context.getRequest().getHost().hashCode()));
-
-        // 遍历实例列表，寻找与选中节点匹配的实例
-        for (ServiceInstance instance : instances) {
-            if (instance.getInstanceId().equals(selectedNode)) {
-                // 如果找到匹配的实例，返回该实例
-                return instance;
-            }
-        }
-
-        // 如果没有找到匹配的实例，返回第一个实例作为默认选择
-        return instances.get(0);
+    private double getBoundedLoadFactor(GatewayContext context) {
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        return loadBalanceFilterConfig == null ? 0 : loadBalanceFilterConfig.getBoundedLoadFactor();
     }
 
     @Override
@@ -1,19 +1,33 @@
 package com.spark.gateway.core.filter.loadbalance.strategy;
 
+import com.spark.gateway.config.pojo.RouteDefinition;
 import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.util.FilterUtil;
+import com.spark.gateway.core.algorithm.AliasSampler;
 import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_NAME;
 import static com.spark.constant.LoadBalanceConstant.GRAY_LOAD_BALANCE_STRATEGY;
+import static com.spark.constant.LoadBalanceConstant.SLOW_START_REFRESH_INTERVAL;
 
 
 public class GrayLoadBalanceStrategy implements LoadBalanceStrategy {
 
+    // 服务对应的别名采样器
+    private final Map<String /* 服务名 */, GraySampler> samplerMap = new ConcurrentHashMap<>();
+
     /**
-     * 根据请求选择一个服务实例
-     * 该方法使用轮询算法基于服务实例的阈值来选择一个实例
-     * 如果总阈值为零或负数，则不选择任何实例
+     * 根据请求选择一个灰度实例
+     * 按各灰度实例的灰度比例加权随机选择，灰度比例可以是小数
+     * 采样器在实例列表变化时（快照整体替换，列表对象随之变化）才重新构建，选择的代价为O(1)
+     * 有灰度实例处于慢启动期间时，灰度比例乘以慢启动系数，按间隔重建
+     * 如果灰度比例之和不大于0，则不选择任何实例
      *
      * @param context   网关上下文，包含请求信息
      * @param instances 服务实例列表，不为空
@@ -21,24 +35,33 @@ public class GrayLoadBalanceStrategy implements LoadBalanceStrategy {
      */
     @Override
     public ServiceInstance selectInstance(GatewayContext context, List<ServiceInstance> instances) {
-        // 计算所有实例阈值的总和，转换为百分比形式
-        int totalThreshold = (int) (instances.stream().mapToDouble(ServiceInstance::getThreshold).sum() * 100);
-        // 如果总阈值不大于0，则不选择任何实例
-        if (totalThreshold <= 0) {
-            return null;
-        }
-        // 根据请求主机的哈希码和总阈值计算一个随机阈值，以实现负载均衡
-        int randomThreshold = Math.abs(context.getRequest().getHost().hashCode()) % totalThreshold;
-        // 遍历所有实例，逐个减去其阈值，直到随机阈值小于0，即找到目标实例
-        for (ServiceInstance instance : instances) {
-            randomThreshold -= instance.getThreshold();
-            // 当随机阈值小于0时，返回当前实例
-            if (randomThreshold < 0) {
-                return instance;
-            }
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        long now = System.nanoTime();
+        GraySampler sampler = samplerMap.get(serviceName);
+        if (sampler == null || sampler.sampler.getItems() != instances || (sampler.expireAt != 0 && now - sampler.expireAt >= 0)) {
+            sampler = buildSampler(context, instances, now);
+            samplerMap.put(serviceName, sampler);
         }
-        // 如果所有实例遍历完毕仍未找到目标实例，返回null
-        return null;
+        return sampler.sampler.sample();
+    }
+
+    private GraySampler buildSampler(GatewayContext context, List<ServiceInstance> instances, long now) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        InstanceStatsManager statsManager = InstanceStatsManager.getInstance();
+        boolean[] warming = new boolean[1];
+        AliasSampler<ServiceInstance> aliasSampler = new AliasSampler<>(instances, instance -> {
+            double factor = statsManager.getWeightFactor(serviceName, instance, loadBalanceFilterConfig, now);
+            warming[0] |= factor < 1D;
+            return instance.getThreshold() * factor;
+        });
+        return new GraySampler(aliasSampler, warming[0] ? now + TimeUnit.MILLISECONDS.toNanos(SLOW_START_REFRESH_INTERVAL) : 0);
+    }
+
+    /**
+     * 别名采样器，expireAt不为0时到期后按当前的慢启动系数重建
+     */
+    private record GraySampler(AliasSampler<ServiceInstance> sampler, long expireAt) {
     }
 
     @Override
@@ -0,0 +1,48 @@
+package com.spark.gateway.core.filter.loadbalance.strategy;
+
+import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.spark.constant.LoadBalanceConstant.LEAST_REQUEST_LOAD_BALANCE_STRATEGY;
+
+public class LeastRequestLoadBalanceStrategy implements LoadBalanceStrategy {
+
+    /**
+     * 最少请求数策略
+     * 随机选出两个不同的实例，选择正在进行的请求数较少的一个（Power of Two Choices），
+     * 不需要遍历全部实例，慢实例上请求堆积后会自然少分到流量
+     *
+     * @param context   网关上下文
+     * @param instances 服务实例列表
+     * @return 选定的服务实例
+     */
+    @Override
+    public ServiceInstance selectInstance(GatewayContext context, List<ServiceInstance> instances) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        // 在剩余的size-1个实例中选第二个，保证两个实例不同
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceInstance a = instances.get(first);
+        ServiceInstance b = instances.get(second);
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        InstanceStatsManager statsManager = InstanceStatsManager.getInstance();
+        return statsManager.getStats(serviceName, b).getInflight() < statsManager.getStats(serviceName, a).getInflight() ? b : a;
+    }
+
+    @Override
+    public String mark() {
+        return LEAST_REQUEST_LOAD_BALANCE_STRATEGY;
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.spark.gateway.core.filter.loadbalance.strategy;
+
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.util.FilterUtil;
+import com.spark.gateway.core.algorithm.Maglev;
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.request.GatewayRequest;
+import io.netty.handler.codec.http.cookie.Cookie;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_NAME;
+import static com.spark.constant.LoadBalanceConstant.MAGLEV_LOAD_BALANCE_STRATEGY;
+import static com.spark.constant.LoadBalanceConstant.MAGLEV_TABLE_SIZE;
+
+public class MaglevLoadBalanceStrategy implements LoadBalanceStrategy {
+
+    // 服务对应的Maglev查找表
+    private final Map<String /* 服务名 */, Maglev<ServiceInstance>> maglevMap = new ConcurrentHashMap<>();
+
+    /**
+     * Maglev哈希策略
+     * 按配置的哈希键（客户端IP、请求头、Cookie或路径段）选择实例，相同键的请求总是路由到同一个实例，
+     * 查找表在实例列表变化时（快照整体替换，列表对象随之变化）才重新构建
+     *
+     * @param context   网关上下文
+     * @param instances 服务实例列表
+     * @return 选定的服务实例
+     */
+    @Override
+    public ServiceInstance selectInstance(GatewayContext context, List<ServiceInstance> instances) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        Maglev<ServiceInstance> maglev = maglevMap.get(serviceName);
+        if (maglev == null || maglev.getItems() != instances) {
+            maglev = new Maglev<>(instances, ServiceInstance::getInstanceId, MAGLEV_TABLE_SIZE);
+            maglevMap.put(serviceName, maglev);
+        }
+        ServiceInstance selected = maglev.getNode(resolveHashKey(context));
+        return selected == null ? instances.get(0) : selected;
+    }
+
+    /**
+     * 按路由配置取哈希键，取不到时使用客户端IP
+     */
+    private String resolveHashKey(GatewayContext context) {
+        GatewayRequest request = context.getRequest();
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        if (loadBalanceFilterConfig == null || loadBalanceFilterConfig.getHashKeyType() == null) {
+            return request.getClientIp();
+        }
+        String keyName = loadBalanceFilterConfig.getHashKeyName();
+        String key = switch (loadBalanceFilterConfig.getHashKeyType()) {
+            case HEADER -> keyName == null ? null : request.getHeaders().get(keyName);
+            case COOKIE -> {
+                Cookie cookie = keyName == null ? null : request.getCookie(keyName);
+                yield cookie == null ? null : cookie.value();
+            }
+            case PATH_SEGMENT -> getPathSegment(request.getPath(), keyName);
+            default -> request.getClientIp();
+        };
+        return key == null ? request.getClientIp() : key;
+    }
+
+    /**
+     * 取路径中指定下标的段，例如 /user/123/info 的第1段为123
+     */
+    private String getPathSegment(String path, String index) {
+        if (path == null || index == null) {
+            return null;
+        }
+        int target;
+        try {
+            target = Integer.parseInt(index.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        int segment = 0;
+        int start = path.startsWith("/") ? 1 : 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (segment++ == target) {
+                return start < end ? path.substring(start, end) : null;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    @Override
+    public String mark() {
+        return MAGLEV_LOAD_BALANCE_STRATEGY;
+    }
+
+}
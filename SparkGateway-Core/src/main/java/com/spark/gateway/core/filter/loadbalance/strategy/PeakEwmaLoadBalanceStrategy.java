@@ -0,0 +1,76 @@
+package com.spark.gateway.core.filter.loadbalance.strategy;
+
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.util.FilterUtil;
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStats;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_NAME;
+import static com.spark.constant.LoadBalanceConstant.EWMA_DECAY_TIME;
+import static com.spark.constant.LoadBalanceConstant.PEAK_EWMA_LOAD_BALANCE_STRATEGY;
+
+public class PeakEwmaLoadBalanceStrategy implements LoadBalanceStrategy {
+
+    private static final double PENALTY = Long.MAX_VALUE >> 16; // 还没有延迟数据但已有请求在进行的实例的代价
+
+    /**
+     * 延迟感知策略
+     * 随机选出两个不同的实例，选择 延迟均值 * (正在进行的请求数 + 1) 较小的一个，
+     * 延迟均值在每次下游调用完成时更新
+     *
+     * @param context   网关上下文
+     * @param instances 服务实例列表
+     * @return 选定的服务实例
+     */
+    @Override
+    public ServiceInstance selectInstance(GatewayContext context, List<ServiceInstance> instances) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        // 在剩余的size-1个实例中选第二个，保证两个实例不同
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceInstance a = instances.get(first);
+        ServiceInstance b = instances.get(second);
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        long decayNanos = getDecayNanos(context);
+        InstanceStatsManager statsManager = InstanceStatsManager.getInstance();
+        return cost(statsManager.getStats(serviceName, b), decayNanos) < cost(statsManager.getStats(serviceName, a), decayNanos) ? b : a;
+    }
+
+    private double cost(InstanceStats stats, long decayNanos) {
+        double ewma = stats.getEwma(decayNanos);
+        int inflight = stats.getInflight();
+        if (ewma == 0 && inflight > 0) {
+            return PENALTY + inflight;
+        }
+        return ewma * (inflight + 1);
+    }
+
+    /**
+     * 路由配置的衰减时间，单位纳秒
+     */
+    public static long getDecayNanos(GatewayContext context) {
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        long decayTime = loadBalanceFilterConfig == null || loadBalanceFilterConfig.getEwmaDecayTime() <= 0
+                ? EWMA_DECAY_TIME : loadBalanceFilterConfig.getEwmaDecayTime();
+        return TimeUnit.MILLISECONDS.toNanos(decayTime);
+    }
+
+    @Override
+    public String mark() {
+        return PEAK_EWMA_LOAD_BALANCE_STRATEGY;
+    }
+
+}
@@ -33,7 +33,7 @@ public class RoundRobinLoadBalanceStrategy implements LoadBalanceStrategy {
         // 默认采用严格的轮询策略
         boolean isStrictRoundRobin = true;
         // 尝试从路由定义中获取负载均衡过滤器配置
-        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute().getFilterConfigs(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
         if (loadBalanceFilterConfig != null) {
             // 如果配置存在，则使用配置中的轮询策略
             isStrictRoundRobin = loadBalanceFilterConfig.isStrictRoundRobin();
@@ -1,19 +1,32 @@
 package com.spark.gateway.core.filter.loadbalance.strategy;
 
 import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.util.FilterUtil;
+import com.spark.gateway.core.algorithm.AliasSampler;
 import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
 
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_NAME;
+import static com.spark.constant.LoadBalanceConstant.SLOW_START_REFRESH_INTERVAL;
 import static com.spark.constant.LoadBalanceConstant.WEIGHT_LOAD_BALANCE_STRATEGY;
 
 
 public class WeightLoadBalanceStrategy implements LoadBalanceStrategy {
 
+    // 服务对应的别名采样器
+    private final Map<String /* 服务名 */, WeightSampler> samplerMap = new ConcurrentHashMap<>();
+
     /**
      * 根据服务实例的权重选择一个实例
      * 权重越高，被选中的概率越大
+     * 采样器在实例列表变化时（快照整体替换，列表对象随之变化）才重新构建，选择的代价为O(1)
+     * 有实例处于慢启动期间时，按间隔以当前的有效权重重建
      * 如果所有实例的权重之和小于等于0，则返回null
      *
      * @param context   网关上下文，包含请求和响应等信息
@@ -22,24 +35,33 @@ public class WeightLoadBalanceStrategy implements LoadBalanceStrategy {
      */
     @Override
     public ServiceInstance selectInstance(GatewayContext context, List<ServiceInstance> instances) {
-        // 计算所有实例的权重之和
-        int totalWeight = instances.stream().mapToInt(ServiceInstance::getWeight).sum();
-        // 如果权重之和小于等于0，表示所有实例都不适合，直接返回null
-        if (totalWeight <= 0) {
-            return null;
-        }
-        // 生成一个随机权重，用于在实例中按权重随机选择
-        int randomWeight = ThreadLocalRandom.current().nextInt(totalWeight);
-        // 遍历实例列表，减去随机权重直到小于0，表示找到合适的实例
-        for (ServiceInstance instance : instances) {
-            randomWeight -= instance.getWeight();
-            // 当随机权重小于0时，返回当前实例
-            if (randomWeight < 0) {
-                return instance;
-            }
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        long now = System.nanoTime();
+        WeightSampler sampler = samplerMap.get(serviceName);
+        if (sampler == null || sampler.sampler.getItems() != instances || (sampler.expireAt != 0 && now - sampler.expireAt >= 0)) {
+            sampler = buildSampler(context, instances, now);
+            samplerMap.put(serviceName, sampler);
         }
-        // 如果没有找到合适的实例，返回null
-        return null;
+        return sampler.sampler.sample();
+    }
+
+    private WeightSampler buildSampler(GatewayContext context, List<ServiceInstance> instances, long now) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        InstanceStatsManager statsManager = InstanceStatsManager.getInstance();
+        boolean[] warming = new boolean[1];
+        AliasSampler<ServiceInstance> aliasSampler = new AliasSampler<>(instances, instance -> {
+            double factor = statsManager.getWeightFactor(serviceName, instance, loadBalanceFilterConfig, now);
+            warming[0] |= factor < 1D;
+            return instance.getWeight() * factor;
+        });
+        return new WeightSampler(aliasSampler, warming[0] ? now + TimeUnit.MILLISECONDS.toNanos(SLOW_START_REFRESH_INTERVAL) : 0);
+    }
+
+    /**
+     * 别名采样器，expireAt不为0时到期后按当前的有效权重重建
+     */
+    private record WeightSampler(AliasSampler<ServiceInstance> sampler, long expireAt) {
     }
 
     @Override
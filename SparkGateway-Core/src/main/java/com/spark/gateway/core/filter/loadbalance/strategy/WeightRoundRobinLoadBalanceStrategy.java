@@ -0,0 +1,148 @@
+package com.spark.gateway.core.filter.loadbalance.strategy;
+
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.config.util.FilterUtil;
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.spark.constant.FilterConstant.LOAD_BALANCE_FILTER_NAME;
+import static com.spark.constant.LoadBalanceConstant.SLOW_START_REFRESH_INTERVAL;
+import static com.spark.constant.LoadBalanceConstant.WEIGHT_ROUND_ROBIN_LOAD_BALANCE_STRATEGY;
+
+public class WeightRoundRobinLoadBalanceStrategy implements LoadBalanceStrategy {
+
+    private static final int MAX_SCHEDULE_SIZE = 4096; // 调度表最大长度，权重之和超过时按比例缩小
+
+    // 服务对应的调度表
+    private final Map<String /* 服务名 */, Schedule> scheduleMap = new ConcurrentHashMap<>();
+
+    /**
+     * 平滑加权轮询
+     * 按nginx平滑加权轮询算法预先生成一轮完整的调度顺序，请求时只做一次原子自增取下标，
+     * 实例列表变化时（快照整体替换，列表对象随之变化）才重新生成，有实例处于慢启动期间时按间隔以当前的有效权重重新生成
+     *
+     * @param context   网关上下文
+     * @param instances 服务实例列表
+     * @return 选定的服务实例
+     */
+    @Override
+    public ServiceInstance selectInstance(GatewayContext context, List<ServiceInstance> instances) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        long now = System.nanoTime();
+        Schedule schedule = scheduleMap.get(serviceName);
+        if (schedule == null || schedule.instances != instances || (schedule.expireAt != 0 && now - schedule.expireAt >= 0)) {
+            schedule = buildSchedule(context, instances, now);
+            scheduleMap.put(serviceName, schedule);
+        }
+        ServiceInstance[] order = schedule.order;
+        return order[Math.floorMod(schedule.position.getAndIncrement(), order.length)];
+    }
+
+    /**
+     * 按有效权重生成调度表，慢启动的权重系数放大100倍后取整，约简后不影响普通实例的比例
+     */
+    private Schedule buildSchedule(GatewayContext context, List<ServiceInstance> instances, long now) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        RouteDefinition.LoadBalanceFilterConfig loadBalanceFilterConfig = FilterUtil.findFilterConfigByClass(context.getRoute(), LOAD_BALANCE_FILTER_NAME, RouteDefinition.LoadBalanceFilterConfig.class);
+        InstanceStatsManager statsManager = InstanceStatsManager.getInstance();
+        int[] weights = new int[instances.size()];
+        boolean warming = false;
+        for (int i = 0; i < weights.length; i++) {
+            ServiceInstance instance = instances.get(i);
+            double factor = statsManager.getWeightFactor(serviceName, instance, loadBalanceFilterConfig, now);
+            warming |= factor < 1D;
+            weights[i] = (int) Math.min(Integer.MAX_VALUE / 100, Math.max(0, instance.getWeight())) * 100;
+            if (factor < 1D && weights[i] > 0) {
+                weights[i] = Math.max(1, (int) Math.round(weights[i] * factor));
+            }
+        }
+        return new Schedule(instances, weights, warming ? now + TimeUnit.MILLISECONDS.toNanos(SLOW_START_REFRESH_INTERVAL) : 0);
+    }
+
+    @Override
+    public String mark() {
+        return WEIGHT_ROUND_ROBIN_LOAD_BALANCE_STRATEGY;
+    }
+
+    /**
+     * 一轮完整的调度顺序
+     */
+    private static class Schedule {
+
+        private final List<ServiceInstance> instances; // 生成调度表的实例列表
+
+        private final ServiceInstance[] order; // 调度顺序
+
+        private final AtomicInteger position = new AtomicInteger(0); // 当前位置
+
+        private final long expireAt; // 不为0时到期后重新生成
+
+        private Schedule(List<ServiceInstance> instances, int[] weights, long expireAt) {
+            this.instances = instances;
+            this.expireAt = expireAt;
+            int size = instances.size();
+            long totalWeight = 0;
+            for (int weight : weights) {
+                totalWeight += weight;
+            }
+            // 所有实例的权重都不大于0时按相同权重轮询
+            if (totalWeight == 0) {
+                Arrays.fill(weights, 1);
+                totalWeight = size;
+            }
+            // 用最大公约数约简权重，仍然过长时按比例缩小，权重大于0的实例至少保留1
+            int gcd = 0;
+            for (int weight : weights) {
+                gcd = gcd(gcd, weight);
+            }
+            totalWeight = 0;
+            for (int i = 0; i < size; i++) {
+                weights[i] /= gcd;
+                totalWeight += weights[i];
+            }
+            if (totalWeight > MAX_SCHEDULE_SIZE) {
+                double scale = (double) MAX_SCHEDULE_SIZE / totalWeight;
+                totalWeight = 0;
+                for (int i = 0; i < size; i++) {
+                    if (weights[i] > 0) {
+                        weights[i] = Math.max(1, (int) (weights[i] * scale));
+                    }
+                    totalWeight += weights[i];
+                }
+            }
+            // 平滑加权轮询：每轮所有实例的当前权重加上各自权重，选当前权重最大的，被选中的减去权重之和
+            this.order = new ServiceInstance[(int) totalWeight];
+            long[] current = new long[size];
+            for (int n = 0; n < order.length; n++) {
+                int best = -1;
+                for (int i = 0; i < size; i++) {
+                    current[i] += weights[i];
+                    if (weights[i] > 0 && (best < 0 || current[i] > current[best])) {
+                        best = i;
+                    }
+                }
+                current[best] -= totalWeight;
+                order[n] = instances.get(best);
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            while (b != 0) {
+                int t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+
+    }
+
+}
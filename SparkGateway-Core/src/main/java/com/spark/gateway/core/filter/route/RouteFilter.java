@@ -6,8 +6,9 @@ import com.spark.gateway.core.context.GatewayContext;
 import com.spark.gateway.core.filter.Filter;
 import com.spark.gateway.core.helper.ContextHelper;
 import com.spark.gateway.core.helper.ResponseHelper;
+import com.spark.gateway.core.netty.stream.StreamRelay;
 import com.spark.gateway.core.resilience.Resilience;
-import org.asynchttpclient.Response;
+import com.spark.gateway.core.response.GatewayResponse;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -26,6 +27,15 @@ public class RouteFilter implements Filter {
      */
     @Override
     public void doPreFilter(GatewayContext context) {
+        // 流式转发的路由由中继直接连接下游，请求块和响应块在两端之间转发，不经过后置过滤器，舱壁和断路器在中继中生效
+        if (context.getRoute().isStreamEnabled()) {
+            StreamRelay relay = StreamRelay.get(context.getNettyCtx().channel());
+            if (relay != null) {
+                relay.connect(context);
+                return;
+            }
+        }
+
         // 获取路由的弹性配置
         RouteDefinition.ResilienceConfig resilience = context.getRoute().getResilience();
 
@@ -35,12 +45,13 @@ public class RouteFilter implements Filter {
             Resilience.getInstance().executeRequest(context);
         } else {
             // 如果未启用，构建路由并处理请求
-            CompletableFuture<Response> future = RouteUtil.buildRouteSupplier(context).get().toCompletableFuture();
+            CompletableFuture<GatewayResponse> future = RouteUtil.buildRouteSupplier(context).get().toCompletableFuture();
 
             // 处理可能的异常
             future.exceptionally(throwable -> {
-                // 设置错误响应并回写给客户端
-                context.setResponse(ResponseHelper.buildGatewayResponse(ResponseCode.HTTP_RESPONSE_ERROR));
+                // 设置错误响应并回写给客户端，超过截止时间时返回504
+                context.setResponse(ResponseHelper.buildGatewayResponse(context.isDeadlineExceeded()
+                        ? ResponseCode.DEADLINE_EXCEEDED : ResponseCode.HTTP_RESPONSE_ERROR));
                 ContextHelper.writeBackResponse(context);
                 return null;
             });
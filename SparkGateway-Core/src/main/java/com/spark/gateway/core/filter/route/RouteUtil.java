@@ -1,15 +1,30 @@
 package com.spark.gateway.core.filter.route;
 
+import com.spark.enums.ResponseCode;
+import com.spark.exception.ResponseException;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
 import com.spark.gateway.core.context.GatewayContext;
-import com.spark.gateway.core.helper.ResponseHelper;
+import com.spark.gateway.core.filter.loadbalance.InstanceStats;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
+import com.spark.gateway.core.filter.loadbalance.LoadBalanceFilter;
+import com.spark.gateway.core.filter.loadbalance.strategy.PeakEwmaLoadBalanceStrategy;
 import com.spark.gateway.core.http.HttpClient;
-import org.asynchttpclient.Request;
-import org.asynchttpclient.Response;
+import com.spark.gateway.core.resilience.Hedging;
+import com.spark.gateway.core.resilience.ResilienceFactory;
+import com.spark.gateway.core.response.GatewayResponse;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+@Slf4j
 public class RouteUtil {
 
     /**
@@ -19,26 +34,152 @@ public class RouteUtil {
      * @param context 网关上下文，包含请求和响应处理所需的信息
      * @return 一个供应商函数，它会异步执行请求并返回一个完成阶段，包含响应
      */
-    public static Supplier<CompletionStage<Response>> buildRouteSupplier(GatewayContext context) {
-        return () -> {
-            // 构建请求对象
-            Request request = context.getRequest().build();
-            // 执行HTTP请求并获取异步结果
-            CompletableFuture<Response> future = HttpClient.getInstance().executeRequest(request);
-            // 完成时处理响应或异常
-            future.whenComplete(((response, throwable) -> {
-                // 如果发生异常，设置上下文中的异常并抛出运行时异常
-                if (throwable != null) {
-                    context.setThrowable(throwable);
-                    throw new RuntimeException(throwable);
+    public static Supplier<CompletionStage<GatewayResponse>> buildRouteSupplier(GatewayContext context) {
+        return () -> route(context);
+    }
+
+    /**
+     * 向下游发起请求，完成时设置响应并继续执行过滤器
+     * 开启了对冲的幂等请求由对冲执行，否则向负载均衡选中的实例发送一次
+     * 重试时避开上一次调用的实例重新选择，被摘除、剔除或熔断的实例不会被选中，没有其他可用实例时仍使用原实例
+     *
+     * @param context 网关上下文，包含请求和响应处理所需的信息
+     * @return 一个完成阶段，包含响应
+     */
+    public static CompletionStage<GatewayResponse> route(GatewayContext context) {
+        if (context.getRouteAttempts() > 0 && context.getServiceInstance() != null) {
+            ServiceInstance instance = LoadBalanceFilter.selectInstance(context, context.getServiceInstance());
+            if (instance != null) {
+                String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+                context.setServiceInstance(instance);
+                context.setInstanceStats(InstanceStatsManager.getInstance().getStats(serviceName, instance));
+                context.getRequest().setModifyHost(instance.getIp() + ":" + instance.getPort());
+            }
+        }
+        context.setRouteAttempts(context.getRouteAttempts() + 1);
+        CompletableFuture<GatewayResponse> future = Hedging.getInstance().shouldHedge(context)
+                ? Hedging.getInstance().execute(context)
+                : send(context, context.getServiceInstance(), context.getInstanceStats());
+        // 完成时处理响应或异常
+        future.whenComplete(((response, throwable) -> {
+            // 如果发生异常，设置上下文中的异常并抛出运行时异常
+            if (throwable != null) {
+                context.setThrowable(throwable);
+                throw new RuntimeException(throwable);
+            }
+            // 处理正常响应，设置上下文中的响应，并执行过滤器
+            context.setResponse(response);
+            context.doFilter();
+        }));
+        // 返回异步结果
+        return future;
+    }
+
+    /**
+     * 向指定实例发送一次请求，记录实例的统计
+     * 返回的结果被取消时取消下游请求，取消不计入实例的延迟和失败
+     * 请求有截止时间时只使用剩余的时间，已经超过截止时间时直接失败，不再访问下游
+     * 开启了实例级熔断时经过该实例的断路器，断路器开启时直接失败
+     *
+     * @param context       网关上下文
+     * @param instance      下游实例
+     * @param instanceStats 实例统计，为空时不记录
+     * @return 下游响应
+     */
+    public static CompletableFuture<GatewayResponse> send(GatewayContext context, ServiceInstance instance, InstanceStats instanceStats) {
+        long timeout = 0;
+        if (context.getDeadline() != 0) {
+            timeout = context.getRemainingTime();
+            if (timeout <= 0) {
+                return CompletableFuture.failedFuture(new ResponseException(ResponseCode.DEADLINE_EXCEEDED));
+            }
+        }
+        String address = instance == null ? context.getRequest().getModifyHost() : instance.getIp() + ":" + instance.getPort();
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        // 实例级熔断，对实际调用的实例（包括重试重新选择的实例和对冲的实例）生效
+        RouteDefinition.ResilienceConfig resilienceConfig = context.getRoute().getResilience();
+        CircuitBreaker circuitBreaker = instance != null && resilienceConfig.isEnabled()
+                ? ResilienceFactory.buildInstanceCircuitBreaker(resilienceConfig, serviceName, instance.getInstanceId()) : null;
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            return CompletableFuture.failedFuture(CallNotPermittedException.createCallNotPermittedException(circuitBreaker));
+        }
+        // 记录实例正在进行的请求数，每次下游调用（包括重试和对冲）单独计数，调用完成时归还并记录延迟
+        if (instanceStats != null) {
+            instanceStats.requestStart();
+        }
+        long startNanos = System.nanoTime();
+        // 执行HTTP请求并获取异步结果，Netty原生客户端在客户端连接所在的EventLoop上发送
+        CompletableFuture<GatewayResponse> future;
+        try {
+            future = HttpClient.getInstance()
+                    .executeRequest(context.getRequest(), address, context.getNettyCtx().channel().eventLoop(), timeout);
+        } catch (Throwable t) {
+            if (instanceStats != null) {
+                instanceStats.requestEnd();
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.releasePermission();
+            }
+            throw t;
+        }
+        if (circuitBreaker != null) {
+            long start = circuitBreaker.getCurrentTimestamp();
+            future.whenComplete((response, throwable) -> {
+                long duration = circuitBreaker.getCurrentTimestamp() - start;
+                if (isCancelled(throwable)) {
+                    circuitBreaker.releasePermission();
+                } else if (throwable != null) {
+                    circuitBreaker.onError(duration, circuitBreaker.getTimestampUnit(), throwable);
+                } else {
+                    circuitBreaker.onResult(duration, circuitBreaker.getTimestampUnit(), response);
+                }
+            });
+        }
+        if (instanceStats != null) {
+            future.whenComplete((response, throwable) -> {
+                // 被取消的请求（对冲中落后的一方）不反映实例的状态
+                if (isCancelled(throwable)) {
+                    instanceStats.requestEnd();
+                    return;
                 }
-                // 处理正常响应，设置上下文中的响应，并执行过滤器
-                context.setResponse(ResponseHelper.buildGatewayResponse(response));
-                context.doFilter();
-            }));
-            // 返回异步结果
-            return future;
-        };
+                // 连接失败、超时和5xx视为失败
+                boolean success = throwable == null && (response.getHttpResponseStatus() == null
+                        || response.getHttpResponseStatus().code() < 500);
+                recordOutcome(context, instance, instanceStats, startNanos, success);
+            });
+        }
+        return future;
+    }
+
+    /**
+     * 一次下游调用结束，归还实例的进行中请求数，记录延迟，开启了被动异常剔除时记录结果
+     *
+     * @param context       网关上下文
+     * @param instance      下游实例
+     * @param instanceStats 实例统计
+     * @param startNanos    调用开始的时间，System.nanoTime()
+     * @param success       调用是否成功，连接失败、超时和5xx视为失败
+     */
+    public static void recordOutcome(GatewayContext context, ServiceInstance instance, InstanceStats instanceStats,
+                                     long startNanos, boolean success) {
+        instanceStats.requestEnd(System.nanoTime() - startNanos, success, PeakEwmaLoadBalanceStrategy.getDecayNanos(context));
+        // 被动异常剔除，连续失败达到阈值时剔除实例
+        RouteDefinition.HealthCheckConfig healthCheck = context.getRoute().getHealthCheck();
+        if (healthCheck != null && healthCheck.isOutlierDetectionEnabled()
+                && instanceStats.recordOutcome(success, healthCheck.getConsecutiveFailures(),
+                TimeUnit.MILLISECONDS.toNanos(healthCheck.getBaseEjectionTime()),
+                TimeUnit.MILLISECONDS.toNanos(healthCheck.getMaxEjectionTime()))) {
+            String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+            log.warn("instance {} of service {} is ejected", instance == null ? context.getRequest().getModifyHost() : instance.getInstanceId(), serviceName);
+            InstanceStatsManager.getInstance().availabilityChanged(serviceName);
+        }
+    }
+
+    private static boolean isCancelled(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable instanceof CancellationException;
     }
 
 }
@@ -4,7 +4,9 @@ import com.spark.gateway.config.helper.RouteResolver;
 import com.spark.gateway.config.manager.DynamicConfigManager;
 import com.spark.gateway.config.pojo.RouteDefinition;
 import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.netty.stream.StreamRelay;
 import com.spark.gateway.core.request.GatewayRequest;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
@@ -36,6 +38,20 @@ public class ContextHelper {
         return new GatewayContext(ctx, gatewayRequest, route, HttpUtil.isKeepAlive(request));
     }
 
+    /**
+     * 构建流式转发请求的网关上下文
+     * 流式请求此时只有请求头，请求体随后按块到达，这里用空请求体构建完整请求供过滤器使用
+     *
+     * @param request 请求头
+     * @param ctx     ChannelHandlerContext对象
+     * @return GatewayContext对象
+     */
+    public static GatewayContext buildGatewayContext(HttpRequest request, ChannelHandlerContext ctx) {
+        FullHttpRequest head = new DefaultFullHttpRequest(request.protocolVersion(), request.method(), request.uri(),
+                Unpooled.EMPTY_BUFFER, request.headers(), EmptyHttpHeaders.INSTANCE);
+        return buildGatewayContext(head, ctx);
+    }
+
     /**
      * 将响应写回到客户端
      * 根据上下文决定使用长连接还是短连接来写回响应
@@ -43,6 +59,15 @@ public class ContextHelper {
      * @param context 网关上下文，包含响应信息和Netty上下文
      */
     public static void writeBackResponse(GatewayContext context) {
+        // 流式请求在连接下游之前就被过滤器直接响应时，放弃本次转发
+        StreamRelay relay = StreamRelay.get(context.getNettyCtx().channel());
+        if (relay != null) {
+            relay.release();
+        }
+
+        // 下游请求已经结束，释放客户端请求
+        context.releaseRequest();
+
         // 构建HTTP响应对象
         FullHttpResponse httpResponse = ResponseHelper.buildHttpResponse(context.getResponse());
 
@@ -14,6 +14,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static com.spark.constant.HttpConstant.HTTP_FORWARD_SEPARATOR;
+import static com.spark.constant.HttpConstant.HTTP_REQUEST_TIMEOUT;
 
 
 /**
@@ -59,6 +60,52 @@ public class RequestHelper {
         return gatewayRequest.build();
     }
 
+    /**
+     * 构建Netty原生客户端发给下游的请求
+     * 请求体与客户端请求共享同一块内存，只增加引用计数，由编码器写出后释放
+     *
+     * @param gatewayRequest 网关请求
+     * @return 发给下游的完整请求
+     */
+    public static FullHttpRequest buildUpstreamRequest(GatewayRequest gatewayRequest) {
+        return buildUpstreamRequest(gatewayRequest, gatewayRequest.getModifyHost(), 0);
+    }
+
+    /**
+     * 构建发给指定下游实例的请求，请求体与客户端请求共享内存
+     *
+     * @param gatewayRequest 网关请求
+     * @param address        下游实例地址，ip:port
+     * @param timeout        请求剩余的超时时间，单位ms，大于0时写入请求头传给下游
+     * @return 下游请求
+     */
+    public static FullHttpRequest buildUpstreamRequest(GatewayRequest gatewayRequest, String address, long timeout) {
+        FullHttpRequest fullHttpRequest = gatewayRequest.getFullHttpRequest();
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, gatewayRequest.getMethod(),
+                buildUpstreamUri(gatewayRequest), fullHttpRequest.content().retainedDuplicate());
+        request.headers().set(gatewayRequest.getHeaders());
+        request.headers().set(HttpHeaderNames.HOST, address);
+        request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        request.headers().remove(HttpHeaderNames.TRANSFER_ENCODING);
+        request.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, request.content().readableBytes());
+        if (timeout > 0) {
+            request.headers().set(HTTP_REQUEST_TIMEOUT, timeout);
+        }
+        return request;
+    }
+
+    /**
+     * 构建发给下游的uri，路径使用修改后的路径，保留原始查询参数
+     *
+     * @param gatewayRequest 网关请求
+     * @return 下游uri
+     */
+    public static String buildUpstreamUri(GatewayRequest gatewayRequest) {
+        String uri = gatewayRequest.getUri();
+        int queryIndex = uri.indexOf('?');
+        return queryIndex >= 0 ? gatewayRequest.getModifyPath() + uri.substring(queryIndex) : gatewayRequest.getModifyPath();
+    }
+
     /**
      * 获取客户端IP地址
      * 该方法首先尝试从HTTP请求头中获取客户端IP地址，如果获取失败，则从ChannelHandlerContext中获取
@@ -29,35 +29,29 @@ public class ResponseHelper {
     public static FullHttpResponse buildHttpResponse(GatewayResponse gatewayResponse) {
         // 初始化响应内容，根据gatewayResponse中不同的数据来源进行处理
         ByteBuf content;
-        if (Objects.nonNull(gatewayResponse.getResponse())) {
-            // 如果下游服务的响应结果存在，则使用该结果作为响应内容
-            content = Unpooled.wrappedBuffer(gatewayResponse.getResponse().getResponseBodyAsByteBuffer()); // 下游服务的http响应结果
-        } else if (gatewayResponse.getContent() != null) {
-            // 如果网关响应对象中包含内容，则使用该内容作为响应内容
+        ByteBuf body = gatewayResponse.getBody();
+        if (gatewayResponse.hasContent()) {
+            // 如果网关响应对象中设置了内容，则使用该内容作为响应内容，不再使用的下游响应体直接释放
+            if (Objects.nonNull(body)) {
+                body.release();
+            }
             content = Unpooled.wrappedBuffer(gatewayResponse.getContent().getBytes());
+        } else if (Objects.nonNull(body)) {
+            // 下游服务的响应体直接透传，写出后由Netty释放
+            content = body;
         } else {
-            // 如果没有内容，则使用空字符串作为响应内容
-            content = Unpooled.wrappedBuffer("".getBytes());
+            // 如果没有内容，则使用空响应体
+            content = Unpooled.EMPTY_BUFFER;
         }
 
-        // 初始化FullHttpResponse对象，根据是否有下游服务的响应来区分处理
-        DefaultFullHttpResponse httpResponse;
-        // 下游响应不为空，直接拿下游响应构造
-        if (Objects.nonNull(gatewayResponse.getResponse())) {
-            // 使用下游服务的响应信息来构建FullHttpResponse对象
-            httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
-                    HttpResponseStatus.valueOf(gatewayResponse.getResponse().getStatusCode()), content);
-            // 添加下游服务响应中的头部信息
-            httpResponse.headers().add(gatewayResponse.getResponse().getHeaders()); //
-        } else {
-            // 使用网关响应对象中的信息来构建FullHttpResponse对象
-            httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
-                    gatewayResponse.getHttpResponseStatus(), content);
-            // 添加网关响应对象中的头部信息
-            httpResponse.headers().add(gatewayResponse.getResponseHeaders());
-            // 设置响应的内容长度
-            httpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, httpResponse.content().readableBytes());
-        }
+        // 使用网关响应对象中的信息来构建FullHttpResponse对象
+        DefaultFullHttpResponse httpResponse = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                gatewayResponse.getHttpResponseStatus(), content);
+        // 添加网关响应对象中的头部信息
+        httpResponse.headers().add(gatewayResponse.getResponseHeaders());
+        // 响应体已经完整，按实际长度设置内容长度
+        httpResponse.headers().remove(HttpHeaderNames.TRANSFER_ENCODING);
+        httpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, httpResponse.content().readableBytes());
 
         // 返回构建好的FullHttpResponse对象
         return httpResponse;
@@ -78,12 +72,22 @@ public class ResponseHelper {
         GatewayResponse gatewayResponse = new GatewayResponse();
         gatewayResponse.setResponseHeaders(response.getHeaders());
         gatewayResponse.setHttpResponseStatus(HttpResponseStatus.valueOf(response.getStatusCode()));
-        gatewayResponse.setContent(response.getResponseBody());
+        // 只包装下游响应体，不解码成字符串，过滤器需要时再按需解码
+        gatewayResponse.setBody(Unpooled.wrappedBuffer(response.getResponseBodyAsByteBuffer()));
         gatewayResponse.setResponse(response);
 
         return gatewayResponse;
     }
 
+    public static GatewayResponse buildGatewayResponse(FullHttpResponse response) {
+        GatewayResponse gatewayResponse = new GatewayResponse();
+        gatewayResponse.setResponseHeaders(response.headers());
+        gatewayResponse.setHttpResponseStatus(response.status());
+        gatewayResponse.setBody(response.content());
+
+        return gatewayResponse;
+    }
+
     public static GatewayResponse buildGatewayResponse(ResponseCode code) {
         GatewayResponse gatewayResponse = new GatewayResponse();
         gatewayResponse.addHeader(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON + ";charset=utf-8");
@@ -1,17 +1,27 @@
 package com.spark.gateway.core.http;
 
 
+import com.spark.gateway.core.helper.RequestHelper;
+import com.spark.gateway.core.helper.ResponseHelper;
+import com.spark.gateway.core.request.GatewayRequest;
+import com.spark.gateway.core.response.GatewayResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
 import org.asynchttpclient.AsyncHttpClient;
 import org.asynchttpclient.ListenableFuture;
 import org.asynchttpclient.Request;
 import org.asynchttpclient.Response;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public class HttpClient {
 
     private AsyncHttpClient asyncHttpClient;
 
+    private NettyUpstreamClient nettyUpstreamClient;
+
     private HttpClient() {
     }
 
@@ -25,10 +35,89 @@ public class HttpClient {
         this.asyncHttpClient = asyncHttpClient;
     }
 
+    public void initialized(NettyUpstreamClient nettyUpstreamClient) {
+        this.nettyUpstreamClient = nettyUpstreamClient;
+    }
+
     public CompletableFuture<Response> executeRequest(Request request) {
         ListenableFuture<Response> future = asyncHttpClient.executeRequest(request);
         return future.toCompletableFuture();
     }
 
+    /**
+     * 向下游发送请求，配置了Netty原生客户端时在客户端连接所在的EventLoop上发送
+     *
+     * @param request   网关请求
+     * @param eventLoop 客户端连接所在的EventLoop
+     * @return 网关响应
+     */
+    public CompletableFuture<GatewayResponse> executeRequest(GatewayRequest request, EventLoop eventLoop) {
+        return executeRequest(request, request.getModifyHost(), eventLoop, 0);
+    }
+
+    /**
+     * 向指定的下游实例发送请求
+     * 返回的结果被取消时同时取消下游请求，已经收到的响应会被释放
+     *
+     * @param request   网关请求
+     * @param address   下游实例地址，ip:port
+     * @param eventLoop 客户端连接所在的EventLoop
+     * @param timeout   请求剩余的超时时间，单位ms，不超过客户端配置的请求超时时间，并通过请求头传给下游，为0时使用客户端配置
+     * @return 网关响应
+     */
+    public CompletableFuture<GatewayResponse> executeRequest(GatewayRequest request, String address, EventLoop eventLoop, long timeout) {
+        if (nettyUpstreamClient != null) {
+            return adapt(nettyUpstreamClient.execute(eventLoop, request.getServiceDefinition().getServiceName(), address,
+                            RequestHelper.buildUpstreamRequest(request, address, timeout), timeout),
+                    ResponseHelper::buildGatewayResponse);
+        }
+        int requestTimeout = asyncHttpClient.getConfig().getRequestTimeout();
+        if (timeout > 0 && (requestTimeout <= 0 || timeout < requestTimeout)) {
+            requestTimeout = (int) timeout;
+        }
+        // 请求体引用客户端请求的内存，每次发送单独持有一份引用，下游请求结束后归还，重试和对冲重放请求体时内存不会被提前释放
+        ByteBuf body = request.getFullHttpRequest().content();
+        body.retain();
+        ListenableFuture<Response> future;
+        try {
+            future = asyncHttpClient.executeRequest(request.build(address, timeout, requestTimeout));
+        } catch (Throwable t) {
+            body.release();
+            throw t;
+        }
+        CompletableFuture<Response> source = future.toCompletableFuture();
+        source.whenComplete((response, throwable) -> body.release());
+        CompletableFuture<GatewayResponse> result = adapt(source, ResponseHelper::buildGatewayResponse);
+        // 取消时中止AsyncHttpClient的请求
+        result.whenComplete((response, throwable) -> {
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 转换下游响应，结果被取消时取消下游请求，转换完成时结果已被取消则释放响应体
+     */
+    private static <T> CompletableFuture<GatewayResponse> adapt(CompletableFuture<T> source, Function<T, GatewayResponse> converter) {
+        CompletableFuture<GatewayResponse> result = new CompletableFuture<>();
+        source.whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            GatewayResponse gatewayResponse = converter.apply(response);
+            if (!result.complete(gatewayResponse) && gatewayResponse.getBody() != null) {
+                ReferenceCountUtil.release(gatewayResponse.getBody());
+            }
+        });
+        result.whenComplete((response, throwable) -> {
+            if (result.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return result;
+    }
 
 }
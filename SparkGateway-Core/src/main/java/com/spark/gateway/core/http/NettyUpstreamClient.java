@@ -0,0 +1,218 @@
+package com.spark.gateway.core.http;
+
+import cn.hutool.core.collection.ConcurrentHashSet;
+import com.spark.gateway.config.config.HttpClientConfig;
+import com.spark.gateway.config.manager.DynamicConfigManager;
+import com.spark.util.SystemUtil;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.pool.*;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.FutureListener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * 基于Netty Bootstrap的下游请求客户端
+ * 每个入站worker EventLoop对每个服务实例维护一个连接池，下游连接与客户端连接共用同一个EventLoop，
+ * 请求和响应都不需要切换线程；请求体和响应体以ByteBuf直接透传，不做拷贝
+ * 实例下线时通过实例监听器关闭各EventLoop上该实例的连接池
+ */
+@Slf4j
+public class NettyUpstreamClient {
+
+    private final HttpClientConfig config;
+
+    private final Bootstrap bootstrap;
+
+    private final NettyUpstreamHandler upstreamHandler = new NettyUpstreamHandler();
+
+    // 入站EventLoop对应的连接池，按实例地址 ip:port 区分
+    private final Map<EventLoop, ChannelPoolMap<String, FixedChannelPool>> poolMaps = new ConcurrentHashMap<>();
+
+    // 服务上次实例变化时的实例地址，用于找出下线的实例
+    private final Map<String /* 服务名 */, Set<String>> addressMap = new ConcurrentHashMap<>();
+
+    private final Set<String> addListener = new ConcurrentHashSet<>();
+
+    public NettyUpstreamClient(HttpClientConfig config) {
+        this.config = config;
+        this.bootstrap = new Bootstrap()
+                .channel(SystemUtil.useEpoll() ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getHttpConnectTimeout())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * 在客户端连接所在的EventLoop上向下游实例发送请求
+     *
+     * @param eventLoop   客户端连接所在的EventLoop
+     * @param serviceName 服务名，实例下线时关闭对应的连接池
+     * @param address     下游实例地址，ip:port
+     * @param request     下游请求，所有权转移给本方法
+     * @param timeout     请求剩余的超时时间，单位ms，不超过配置的请求超时时间，为0时使用配置
+     * @return 下游响应，调用方负责释放，取消时关闭对应的下游连接
+     */
+    public CompletableFuture<FullHttpResponse> execute(EventLoop eventLoop, String serviceName, String address, FullHttpRequest request, long timeout) {
+        long requestTimeout = timeout > 0 ? Math.min(timeout, config.getHttpRequestTimeout()) : config.getHttpRequestTimeout();
+        CompletableFuture<FullHttpResponse> future = new CompletableFuture<>();
+        watchInstances(serviceName);
+        FixedChannelPool pool = getPool(eventLoop, address);
+        pool.acquire().addListener((FutureListener<Channel>) acquire -> {
+            if (!acquire.isSuccess()) {
+                request.release();
+                future.completeExceptionally(acquire.cause());
+                return;
+            }
+            Channel channel = acquire.getNow();
+            // 获取连接期间请求已经被取消
+            if (future.isDone()) {
+                request.release();
+                pool.release(channel);
+                return;
+            }
+            NettyUpstreamHandler.UpstreamCall call = new NettyUpstreamHandler.UpstreamCall(pool, future);
+            call.setTimeout(channel.eventLoop().schedule(
+                    () -> NettyUpstreamHandler.fail(channel, new TimeoutException("upstream request timeout: " + address)),
+                    requestTimeout, TimeUnit.MILLISECONDS));
+            NettyUpstreamHandler.bind(channel, call);
+            // 请求被取消（例如对冲请求中落后的一方）时关闭连接，不再等待下游响应
+            future.whenComplete((response, throwable) -> {
+                if (throwable instanceof CancellationException) {
+                    channel.eventLoop().execute(() -> NettyUpstreamHandler.cancel(channel, call, throwable));
+                }
+            });
+            channel.writeAndFlush(request).addListener((ChannelFutureListener) write -> {
+                if (!write.isSuccess()) {
+                    NettyUpstreamHandler.fail(write.channel(), write.cause());
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * 关闭所有连接池
+     */
+    public void close() {
+        for (ChannelPoolMap<String, FixedChannelPool> poolMap : poolMaps.values()) {
+            if (poolMap instanceof AbstractChannelPoolMap<String, FixedChannelPool> map) {
+                map.close();
+            }
+        }
+        poolMaps.clear();
+    }
+
+    /**
+     * 首次向服务发送请求时订阅实例变化，记录当前的实例地址
+     */
+    private void watchInstances(String serviceName) {
+        if (addressMap.containsKey(serviceName)) {
+            return;
+        }
+        addressMap.computeIfAbsent(serviceName, name -> {
+            if (!addListener.contains(name)) {
+                DynamicConfigManager.getInstance().addInstanceListener(name, this::removePools);
+                addListener.add(name);
+            }
+            return getAddresses(name);
+        });
+    }
+
+    /**
+     * 实例变化时关闭下线实例在各EventLoop上的连接池，池中空闲的连接随之关闭，
+     * 正在使用的连接在请求结束归还时关闭；仍被其他服务使用的地址保留
+     */
+    private void removePools(String serviceName) {
+        Set<String> addresses = getAddresses(serviceName);
+        Set<String> previous = addressMap.put(serviceName, addresses);
+        if (previous == null) {
+            return;
+        }
+        for (String address : previous) {
+            if (addresses.contains(address) || isUsedByOtherService(serviceName, address)) {
+                continue;
+            }
+            for (ChannelPoolMap<String, FixedChannelPool> poolMap : poolMaps.values()) {
+                if (poolMap instanceof AbstractChannelPoolMap<String, FixedChannelPool> map) {
+                    map.remove(address);
+                }
+            }
+            log.info("close upstream connection pools of removed instance {} of service {}", address, serviceName);
+        }
+    }
+
+    private boolean isUsedByOtherService(String serviceName, String address) {
+        for (Map.Entry<String, Set<String>> entry : addressMap.entrySet()) {
+            if (!entry.getKey().equals(serviceName) && entry.getValue().contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> getAddresses(String serviceName) {
+        return DynamicConfigManager.getInstance().getInstanceSnapshot(serviceName).getAllInstances().stream()
+                .map(instance -> instance.getIp() + ":" + instance.getPort())
+                .collect(Collectors.toSet());
+    }
+
+    private FixedChannelPool getPool(EventLoop eventLoop, String address) {
+        ChannelPoolMap<String, FixedChannelPool> poolMap = poolMaps.get(eventLoop);
+        if (poolMap == null) {
+            poolMap = poolMaps.computeIfAbsent(eventLoop, this::newPoolMap);
+        }
+        return poolMap.get(address);
+    }
+
+    private ChannelPoolMap<String, FixedChannelPool> newPoolMap(EventLoop eventLoop) {
+        return new AbstractChannelPoolMap<>() {
+            @Override
+            protected FixedChannelPool newPool(String address) {
+                int index = address.lastIndexOf(':');
+                String host = index > 0 ? address.substring(0, index) : address;
+                int port = index > 0 ? Integer.parseInt(address.substring(index + 1)) : 80;
+                // 连接池绑定到入站EventLoop上，获取、归还连接都在该EventLoop中执行
+                return new FixedChannelPool(bootstrap.clone(eventLoop).remoteAddress(host, port),
+                        new UpstreamPoolHandler(), ChannelHealthChecker.ACTIVE,
+                        FixedChannelPool.AcquireTimeoutAction.FAIL, config.getHttpConnectTimeout(),
+                        config.getHttpMaxConnectionsPerEventLoop(), config.getHttpMaxPendingAcquires());
+            }
+        };
+    }
+
+    /**
+     * 新建下游连接时初始化管道
+     */
+    private class UpstreamPoolHandler extends AbstractChannelPoolHandler {
+
+        @Override
+        public void channelCreated(Channel ch) {
+            ch.pipeline().addLast(
+                    new IdleStateHandler(0, 0, config.getHttpPooledConnectionIdleTimeout(), TimeUnit.MILLISECONDS), // 空闲连接超时关闭
+                    new HttpClientCodec(),
+                    new HttpObjectAggregator(config.getHttpMaxContentLength()), // 聚合下游响应，响应体为各个块组成的CompositeByteBuf，不做拷贝
+                    upstreamHandler
+            );
+        }
+
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.spark.gateway.core.http;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Setter;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Netty原生客户端下游连接的处理器，所有下游连接共享同一个实例
+ * 连接上当前正在进行的请求保存在Channel属性中，收到完整响应或出错时归还连接并完成请求
+ */
+@ChannelHandler.Sharable
+public class NettyUpstreamHandler extends ChannelInboundHandlerAdapter {
+
+    private static final AttributeKey<UpstreamCall> CALL_KEY = AttributeKey.valueOf("spark.upstream.call");
+
+    static void bind(Channel channel, UpstreamCall call) {
+        channel.attr(CALL_KEY).set(call);
+    }
+
+    /**
+     * 请求失败，关闭连接后归还给连接池
+     */
+    static void fail(Channel channel, Throwable cause) {
+        UpstreamCall call = channel.attr(CALL_KEY).getAndSet(null);
+        if (call == null) {
+            return;
+        }
+        fail(channel, call, cause);
+    }
+
+    /**
+     * 取消连接上指定的请求，连接已经被归还并复用于其他请求时不做处理
+     */
+    static void cancel(Channel channel, UpstreamCall call, Throwable cause) {
+        if (channel.attr(CALL_KEY).compareAndSet(call, null)) {
+            fail(channel, call, cause);
+        }
+    }
+
+    private static void fail(Channel channel, UpstreamCall call, Throwable cause) {
+        call.cancelTimeout();
+        channel.close();
+        call.pool.release(channel);
+        call.future.completeExceptionally(cause);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof FullHttpResponse response)) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        Channel channel = ctx.channel();
+        UpstreamCall call = channel.attr(CALL_KEY).getAndSet(null);
+        if (call == null) {
+            // 请求已经超时，丢弃迟到的响应
+            response.release();
+            channel.close();
+            return;
+        }
+        call.cancelTimeout();
+        // 下游要求关闭的连接不再复用
+        if (!HttpUtil.isKeepAlive(response)) {
+            channel.close();
+        }
+        call.pool.release(channel);
+        // 请求已经被取消时释放响应
+        if (!call.future.complete(response)) {
+            response.release();
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            ctx.close();
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        fail(ctx.channel(), new ClosedChannelException());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        fail(ctx.channel(), cause);
+    }
+
+    /**
+     * 一次下游请求
+     */
+    static class UpstreamCall {
+
+        private final ChannelPool pool;
+
+        private final CompletableFuture<FullHttpResponse> future;
+
+        @Setter
+        private ScheduledFuture<?> timeout;
+
+        UpstreamCall(ChannelPool pool, CompletableFuture<FullHttpResponse> future) {
+            this.pool = pool;
+            this.future = future;
+        }
+
+        private void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+    }
+
+}
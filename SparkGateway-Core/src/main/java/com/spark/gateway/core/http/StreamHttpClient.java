@@ -0,0 +1,60 @@
+package com.spark.gateway.core.http;
+
+import com.spark.gateway.config.config.HttpClientConfig;
+import com.spark.util.SystemUtil;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpClientCodec;
+
+/**
+ * 流式转发使用的下游连接客户端
+ * 直接基于Netty Bootstrap建立连接，下游连接和客户端连接绑定在同一个EventLoop上，
+ * 两端的读写和背压控制都不需要跨线程
+ */
+public class StreamHttpClient {
+
+    private int connectTimeout = 30 * 1000; // 连接超时时间
+
+    private StreamHttpClient() {
+    }
+
+    private final static StreamHttpClient INSTANCE = new StreamHttpClient();
+
+    public static StreamHttpClient getInstance() {
+        return INSTANCE;
+    }
+
+    public void initialized(HttpClientConfig httpClientConfig) {
+        this.connectTimeout = httpClientConfig.getHttpConnectTimeout();
+    }
+
+    /**
+     * 在指定的EventLoop上连接下游服务
+     *
+     * @param eventLoop 客户端连接所在的EventLoop
+     * @param address   下游地址，ip:port
+     * @param handler   处理下游响应的处理器
+     * @return 连接结果
+     */
+    public ChannelFuture connect(EventLoop eventLoop, String address, ChannelHandler handler) {
+        int index = address.lastIndexOf(':');
+        String host = index > 0 ? address.substring(0, index) : address;
+        int port = index > 0 ? Integer.parseInt(address.substring(index + 1)) : 80;
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoop)
+                .channel(SystemUtil.useEpoll() ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec(), handler);
+                    }
+                });
+        return bootstrap.connect(host, port);
+    }
+
+}
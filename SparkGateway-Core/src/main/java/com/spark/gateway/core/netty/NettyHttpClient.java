@@ -1,9 +1,13 @@
 package com.spark.gateway.core.netty;
 
+import com.spark.enums.HttpClientEnum;
 import com.spark.gateway.config.config.Config;
 import com.spark.gateway.config.config.HttpClientConfig;
 import com.spark.gateway.core.config.LifeCycle;
+import com.spark.gateway.core.filter.loadbalance.HealthChecker;
 import com.spark.gateway.core.http.HttpClient;
+import com.spark.gateway.core.http.NettyUpstreamClient;
+import com.spark.gateway.core.http.StreamHttpClient;
 import com.spark.util.SystemUtil;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.EventLoopGroup;
@@ -37,6 +41,9 @@ public class NettyHttpClient implements LifeCycle {
     // 异步HTTP客户端对象
     private AsyncHttpClient asyncHttpClient;
 
+    // Netty原生下游客户端
+    private NettyUpstreamClient nettyUpstreamClient;
+
     /**
      * 构造函数，初始化NettyHttpClient
      * 根据系统是否支持Epoll来选择合适的EventLoopGroup实现
@@ -67,6 +74,15 @@ public class NettyHttpClient implements LifeCycle {
             return;
         }
         HttpClientConfig httpClientConfig = config.getHttpClient();
+        StreamHttpClient.getInstance().initialized(httpClientConfig);
+        // 实例健康检查在下游客户端的事件循环组上探测
+        HealthChecker.getInstance().start(eventLoopGroupWorker);
+        // Netty原生客户端直接使用网关的worker EventLoop，不需要单独的事件循环组
+        if (httpClientConfig.getType() == HttpClientEnum.NETTY) {
+            this.nettyUpstreamClient = new NettyUpstreamClient(httpClientConfig);
+            HttpClient.getInstance().initialized(nettyUpstreamClient);
+            return;
+        }
         DefaultAsyncHttpClientConfig.Builder builder = new DefaultAsyncHttpClientConfig.Builder()
                 .setEventLoopGroup(eventLoopGroupWorker) // 使用传入的Netty事件循环组
                 .setConnectTimeout(httpClientConfig.getHttpConnectTimeout()) // 连接超时设置
@@ -92,6 +108,11 @@ public class NettyHttpClient implements LifeCycle {
         if (!start.get()) {
             return;
         }
+        HealthChecker.getInstance().shutdown();
+        if (nettyUpstreamClient != null) {
+            // 关闭所有下游连接池
+            nettyUpstreamClient.close();
+        }
         if (asyncHttpClient != null) {
             try {
                 // 关闭异步HTTP客户端
@@ -3,6 +3,7 @@ package com.spark.gateway.core.netty;
 
 import com.spark.gateway.config.config.Config;
 import com.spark.gateway.core.config.LifeCycle;
+import com.spark.gateway.core.netty.handler.NettyHttpObjectAggregator;
 import com.spark.gateway.core.netty.handler.NettyHttpServerHandler;
 import com.spark.gateway.core.netty.processor.NettyProcessor;
 import com.spark.util.SystemUtil;
@@ -15,7 +16,6 @@ import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
 import io.netty.util.ResourceLeakDetector;
@@ -103,7 +103,7 @@ public class NettyHttpServer implements LifeCycle {
                         // 初始化新连接的ChannelPipeline，添加处理HTTP请求的必要处理器
                         ch.pipeline().addLast(
                                 new HttpServerCodec(), // 处理HTTP请求的编解码器
-                                new HttpObjectAggregator(config.getNetty().getMaxContentLength()), // 聚合HTTP请求
+                                new NettyHttpObjectAggregator(config.getNetty().getMaxContentLength()), // 聚合HTTP请求，流式转发的路由不聚合
                                 new HttpServerExpectContinueHandler(), // 处理HTTP 100 Continue请求
                                 new NettyHttpServerHandler(nettyProcessor) // 自定义的处理器
                         );
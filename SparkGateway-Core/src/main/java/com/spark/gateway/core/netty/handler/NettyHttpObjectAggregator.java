@@ -0,0 +1,48 @@
+package com.spark.gateway.core.netty.handler;
+
+import com.spark.gateway.config.manager.DynamicConfigManager;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+
+/**
+ * 按路由决定是否聚合的HTTP消息聚合器
+ * 普通路由的请求仍然聚合成FullHttpRequest，开启了流式转发的路由则直接放行请求头和请求块，
+ * 避免大请求体整体缓存在内存中
+ * 每个连接一个实例，只在该连接的EventLoop中使用
+ */
+public class NettyHttpObjectAggregator extends HttpObjectAggregator {
+
+    /**
+     * 当前正在处理的请求是否走流式转发
+     */
+    private boolean streaming;
+
+    public NettyHttpObjectAggregator(int maxContentLength) {
+        super(maxContentLength);
+    }
+
+    @Override
+    public boolean acceptInboundMessage(Object msg) throws Exception {
+        // 每个请求头到达时根据路由配置重新判断
+        if (msg instanceof HttpRequest request) {
+            streaming = isStreamRoute(request.uri());
+        }
+        if (!streaming) {
+            return super.acceptInboundMessage(msg);
+        }
+        // 最后一个请求块放行之后，恢复为聚合模式
+        if (msg instanceof LastHttpContent) {
+            streaming = false;
+        }
+        return false;
+    }
+
+    private boolean isStreamRoute(String uri) {
+        RouteDefinition route = DynamicConfigManager.getInstance().getRouteTrie().match(uri);
+        // 没有匹配的路由时按普通请求处理，交给后续流程返回404
+        return route != null && route.isStreamEnabled();
+    }
+
+}
@@ -1,9 +1,11 @@
 package com.spark.gateway.core.netty.handler;
 
 import com.spark.gateway.core.netty.processor.NettyProcessor;
+import com.spark.gateway.core.netty.stream.StreamRelay;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpObject;
 
 /**
  * Netty HTTP服务器处理器
@@ -28,13 +30,42 @@ public class NettyHttpServerHandler extends ChannelInboundHandlerAdapter {
      * 当通道读取到数据时，此方法会被调用
      *
      * @param ctx 通道处理上下文，包含了通道、管道等信息
-     * @param msg 读取到的数据，这里应该是FullHttpRequest类型的HTTP请求
+     * @param msg 读取到的数据，普通路由是聚合后的FullHttpRequest，流式转发的路由是请求头和请求块
      * @throws Exception
      */
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        // 调用NettyProcessor的process方法处理HTTP请求
-        nettyProcessor.process(ctx, (FullHttpRequest) msg);
+        if (msg instanceof FullHttpRequest request) {
+            // 调用NettyProcessor的process方法处理HTTP请求
+            nettyProcessor.process(ctx, request);
+        } else {
+            // 流式转发的请求头和请求块
+            nettyProcessor.processStream(ctx, (HttpObject) msg);
+        }
+    }
+
+    /**
+     * 客户端连接可写状态变化时，通知流式转发中继恢复或暂停读取下游响应
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        StreamRelay relay = StreamRelay.get(ctx.channel());
+        if (relay != null) {
+            relay.onClientWritabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * 客户端连接断开时，释放未完成的流式转发
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        StreamRelay relay = StreamRelay.get(ctx.channel());
+        if (relay != null) {
+            relay.release();
+        }
+        super.channelInactive(ctx);
     }
 
     /**
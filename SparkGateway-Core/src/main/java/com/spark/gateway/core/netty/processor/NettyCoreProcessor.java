@@ -6,10 +6,10 @@ import com.spark.gateway.core.context.GatewayContext;
 import com.spark.gateway.core.filter.FilterChainFactory;
 import com.spark.gateway.core.helper.ContextHelper;
 import com.spark.gateway.core.helper.ResponseHelper;
+import com.spark.gateway.core.netty.stream.StreamRelay;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.FullHttpRequest;
-import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.*;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
@@ -53,6 +53,41 @@ public class NettyCoreProcessor implements NettyProcessor {
         }
     }
 
+    /**
+     * 处理流式转发的请求
+     * 请求头到达时创建中继并执行过滤链，路由过滤器负责连接下游；之后到达的请求块交给中继转发
+     *
+     * @param ctx 通道处理上下文
+     * @param msg 请求头或请求块
+     */
+    @Override
+    public void processStream(ChannelHandlerContext ctx, HttpObject msg) {
+        if (msg instanceof HttpRequest request) {
+            StreamRelay relay = StreamRelay.open(ctx);
+            try {
+                GatewayContext gatewayContext = ContextHelper.buildGatewayContext(request, ctx);
+                FilterChainFactory.buildFilterChain(gatewayContext);
+                gatewayContext.doFilter();
+            } catch (GatewayException e) {
+                log.error("处理错误 {} {}", e.getCode(), e.getCode().getMessage());
+                relay.release();
+                ctx.writeAndFlush(ResponseHelper.buildHttpResponse(e.getCode())).addListener(ChannelFutureListener.CLOSE);
+            } catch (Throwable t) {
+                log.error("处理未知错误", t);
+                relay.release();
+                ctx.writeAndFlush(ResponseHelper.buildHttpResponse(ResponseCode.INTERNAL_ERROR)).addListener(ChannelFutureListener.CLOSE);
+            }
+        } else if (msg instanceof HttpContent content) {
+            StreamRelay relay = StreamRelay.get(ctx.channel());
+            if (relay == null) {
+                // 本次请求已经结束（提前返回或出错），丢弃剩余的请求块
+                content.release();
+                return;
+            }
+            relay.forwardRequestContent(content);
+        }
+    }
+
     /**
      * 发送响应并释放资源
      *
@@ -63,8 +98,10 @@ public class NettyCoreProcessor implements NettyProcessor {
     private void doWriteAndRelease(ChannelHandlerContext ctx, FullHttpRequest request, FullHttpResponse httpResponse) {
         // 写入响应并冲刷缓冲区，同时添加关闭通道的监听器
         ctx.writeAndFlush(httpResponse).addListener(ChannelFutureListener.CLOSE);
-        // 释放请求资源
-        ReferenceCountUtil.release(request);
+        // 释放请求资源，构建网关上下文之后出错时请求可能已经随响应写回被释放
+        if (request.refCnt() > 0) {
+            ReferenceCountUtil.release(request);
+        }
     }
 
 }
@@ -3,9 +3,15 @@ package com.spark.gateway.core.netty.processor;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpObject;
 
 public interface NettyProcessor {
 
     void process(ChannelHandlerContext ctx, FullHttpRequest request);
 
+    /**
+     * 处理流式转发的请求头和请求块
+     */
+    void processStream(ChannelHandlerContext ctx, HttpObject msg);
+
 }
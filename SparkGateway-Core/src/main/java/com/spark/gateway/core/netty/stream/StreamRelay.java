@@ -0,0 +1,418 @@
+package com.spark.gateway.core.netty.stream;
+
+import com.spark.enums.ResponseCode;
+import com.spark.exception.ResponseException;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStats;
+import com.spark.gateway.core.filter.route.RouteUtil;
+import com.spark.gateway.core.helper.RequestHelper;
+import com.spark.gateway.core.helper.ResponseHelper;
+import com.spark.gateway.core.http.StreamHttpClient;
+import com.spark.gateway.core.request.GatewayRequest;
+import com.spark.gateway.core.resilience.AsyncBulkhead;
+import com.spark.gateway.core.resilience.ResilienceFactory;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.*;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.spark.constant.HttpConstant.HTTP_REQUEST_TIMEOUT;
+
+/**
+ * 流式转发中继
+ * 一次流式请求对应一个实例，负责把客户端的请求块转发给下游服务、把下游的响应块写回客户端，
+ * 并根据两端Channel的可写状态暂停或恢复对端的自动读取，实现背压
+ * 客户端连接和下游连接在同一个EventLoop上，所有方法都在该EventLoop中执行，无需加锁
+ */
+@Slf4j
+public class StreamRelay {
+
+    public static final AttributeKey<StreamRelay> RELAY_KEY = AttributeKey.valueOf("spark.stream.relay");
+
+    /**
+     * 客户端连接上下文
+     */
+    private final ChannelHandlerContext ctx;
+
+    /**
+     * 下游连接建立之前收到的请求块
+     */
+    private final Queue<HttpContent> pending = new ArrayDeque<>();
+
+    /**
+     * 下游连接
+     */
+    private Channel upstream;
+
+    private boolean keepAlive;
+
+    /**
+     * 请求体是否已经全部转发
+     */
+    private boolean requestDone;
+
+    /**
+     * 是否已经开始向客户端写响应
+     */
+    private boolean responseStarted;
+
+    private boolean closed;
+
+    /**
+     * 网关上下文，连接下游后设置
+     */
+    private GatewayContext context;
+
+    /**
+     * 下游实例的统计，本次转发结束时归还进行中请求数并记录延迟和结果
+     */
+    private InstanceStats instanceStats;
+
+    private long startNanos;
+
+    /**
+     * 下游响应是否为5xx
+     */
+    private boolean serverError;
+
+    /**
+     * 请求截止时间的定时任务
+     */
+    private ScheduledFuture<?> deadlineFuture;
+
+    /**
+     * 转发结果，开始连接下游时创建，舱壁据此归还许可、断路器据此记录结果
+     * 正常结束时完成，失败时以异常完成，放弃的转发被取消
+     */
+    private CompletableFuture<Void> result;
+
+    private StreamRelay(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * 为客户端连接上的一次流式请求创建中继
+     * 在下游连接建立之前暂停读取客户端数据
+     */
+    public static StreamRelay open(ChannelHandlerContext ctx) {
+        StreamRelay relay = new StreamRelay(ctx);
+        ctx.channel().attr(RELAY_KEY).set(relay);
+        ctx.channel().config().setAutoRead(false);
+        return relay;
+    }
+
+    public static StreamRelay get(Channel channel) {
+        return channel.attr(RELAY_KEY).get();
+    }
+
+    /**
+     * 过滤器执行完毕后连接负载均衡选出的下游实例，并开始转发
+     * 转发过程计入实例的统计；请求有截止时间时，超过截止时间仍未结束的转发以504失败
+     * 开启了韧性配置时先检查服务的断路器，再获取舱壁许可，许可在转发结束时归还；
+     * 请求体只能发送一次，重试和降级不适用于流式转发
+     *
+     * @param context 网关上下文
+     */
+    public void connect(GatewayContext context) {
+        if (closed) {
+            return;
+        }
+        this.keepAlive = context.isKeepAlive();
+        // 已经超过截止时间时不再连接下游
+        if (context.isDeadlineExceeded()) {
+            fail(new ResponseException(ResponseCode.DEADLINE_EXCEEDED), ResponseCode.DEADLINE_EXCEEDED);
+            return;
+        }
+        this.context = context;
+        if (context.getDeadline() != 0) {
+            deadlineFuture = ctx.executor().schedule(
+                    () -> fail(new ResponseException(ResponseCode.DEADLINE_EXCEEDED), ResponseCode.DEADLINE_EXCEEDED),
+                    context.getDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        RouteDefinition.ResilienceConfig resilienceConfig = context.getRoute().getResilience();
+        if (!resilienceConfig.isEnabled()) {
+            start(context);
+            return;
+        }
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        // 断路器开启时直接拒绝
+        CircuitBreaker circuitBreaker = ResilienceFactory.buildCircuitBreaker(resilienceConfig, serviceName);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            fail(CallNotPermittedException.createCallNotPermittedException(circuitBreaker), ResponseCode.SERVICE_UNAVAILABLE);
+            return;
+        }
+        Supplier<CompletionStage<Void>> supplier = () -> start(context);
+        Bulkhead bulkhead = ResilienceFactory.buildBulkHead(resilienceConfig, serviceName);
+        if (bulkhead != null) {
+            Supplier<CompletionStage<Void>> next = supplier;
+            supplier = () -> bulkhead.executeCompletionStage(next);
+        }
+        // 排队的转发获得许可后在客户端连接所在的EventLoop上继续
+        AsyncBulkhead asyncBulkhead = ResilienceFactory.buildAsyncBulkhead(resilienceConfig, serviceName);
+        if (asyncBulkhead != null) {
+            Supplier<CompletionStage<Void>> next = supplier;
+            supplier = () -> asyncBulkhead.executeCompletionStage(ctx.executor(), next);
+        }
+        long startTimestamp = circuitBreaker == null ? 0 : circuitBreaker.getCurrentTimestamp();
+        supplier.get().whenComplete((ignored, throwable) -> {
+            // 没有开始转发就结束说明舱壁已满
+            if (result == null) {
+                fail(throwable, ResponseCode.SERVICE_UNAVAILABLE);
+            }
+            if (circuitBreaker == null) {
+                return;
+            }
+            long duration = circuitBreaker.getCurrentTimestamp() - startTimestamp;
+            if (isCancelled(throwable)) {
+                circuitBreaker.releasePermission();
+            } else if (throwable != null) {
+                circuitBreaker.onError(duration, circuitBreaker.getTimestampUnit(), throwable);
+            } else {
+                circuitBreaker.onResult(duration, circuitBreaker.getTimestampUnit(), null);
+            }
+        });
+    }
+
+    /**
+     * 连接下游并开始转发，在舱壁排队期间已经放弃的转发不再连接
+     *
+     * @return 转发结果
+     */
+    private CompletionStage<Void> start(GatewayContext context) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new CancellationException());
+        }
+        result = new CompletableFuture<>();
+        this.instanceStats = context.getInstanceStats();
+        if (instanceStats != null) {
+            instanceStats.requestStart();
+        }
+        this.startNanos = System.nanoTime();
+        GatewayRequest request = context.getRequest();
+        HttpRequest head = buildUpstreamHead(request);
+        if (context.getDeadline() != 0) {
+            head.headers().set(HTTP_REQUEST_TIMEOUT, Math.max(1, context.getRemainingTime()));
+        }
+        StreamHttpClient.getInstance()
+                .connect(ctx.channel().eventLoop(), request.getModifyHost(), new StreamUpstreamHandler(this))
+                .addListener((ChannelFutureListener) future -> {
+                    if (!future.isSuccess()) {
+                        fail(future.cause());
+                        return;
+                    }
+                    if (closed) {
+                        future.channel().close();
+                        return;
+                    }
+                    upstream = future.channel();
+                    upstream.write(head);
+                    HttpContent content;
+                    while ((content = pending.poll()) != null) {
+                        upstream.write(content);
+                    }
+                    upstream.flush();
+                    updateClientRead();
+                });
+        return result;
+    }
+
+    /**
+     * 转发客户端的请求块
+     */
+    public void forwardRequestContent(HttpContent content) {
+        if (closed) {
+            content.release();
+            return;
+        }
+        if (content instanceof LastHttpContent) {
+            requestDone = true;
+        }
+        if (upstream == null) {
+            pending.offer(content);
+            return;
+        }
+        upstream.writeAndFlush(content);
+        updateClientRead();
+    }
+
+    /**
+     * 把下游的响应头和响应块写回客户端
+     */
+    void writeResponse(Object msg) {
+        if (closed) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (msg instanceof HttpResponse response) {
+            responseStarted = true;
+            serverError = response.status().code() >= 500;
+            response.headers().set(HttpHeaderNames.CONNECTION, keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+        }
+        ChannelFuture future = ctx.writeAndFlush(msg);
+        if (msg instanceof LastHttpContent) {
+            complete(future);
+            return;
+        }
+        // 客户端写缓冲区超过高水位时暂停读取下游，等客户端可写后再恢复
+        if (!ctx.channel().isWritable()) {
+            upstream.config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * 客户端可写状态变化
+     */
+    public void onClientWritabilityChanged() {
+        if (closed || upstream == null) {
+            return;
+        }
+        upstream.config().setAutoRead(ctx.channel().isWritable());
+    }
+
+    /**
+     * 下游可写状态变化
+     */
+    void onUpstreamWritabilityChanged() {
+        if (closed) {
+            return;
+        }
+        updateClientRead();
+    }
+
+    /**
+     * 下游连接在响应结束前断开
+     */
+    void onUpstreamInactive() {
+        if (!closed) {
+            fail(new IllegalStateException("upstream closed before response completed"));
+        }
+    }
+
+    /**
+     * 转发失败，响应还没开始写时返回错误响应，否则直接断开客户端连接
+     */
+    void fail(Throwable cause) {
+        fail(cause, ResponseCode.HTTP_RESPONSE_ERROR);
+    }
+
+    private void fail(Throwable cause, ResponseCode code) {
+        if (closed) {
+            return;
+        }
+        log.error("stream relay failed", cause);
+        finish(false);
+        if (result != null) {
+            result.completeExceptionally(cause);
+        }
+        release();
+        if (!responseStarted && ctx.channel().isActive()) {
+            ctx.writeAndFlush(ResponseHelper.buildHttpResponse(code)).addListener(ChannelFutureListener.CLOSE);
+        } else {
+            ctx.close();
+        }
+    }
+
+    /**
+     * 放弃本次转发，释放缓存的请求块和下游连接
+     * 用于过滤器提前返回响应、客户端断开等场景
+     */
+    public void release() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // 客户端断开等原因放弃的转发不反映实例的状态，只归还进行中请求数
+        if (instanceStats != null) {
+            instanceStats.requestEnd();
+            instanceStats = null;
+        }
+        cancelDeadline();
+        if (result != null) {
+            result.cancel(false);
+        }
+        HttpContent content;
+        while ((content = pending.poll()) != null) {
+            content.release();
+        }
+        ctx.channel().attr(RELAY_KEY).set(null);
+        if (upstream != null) {
+            upstream.close();
+        }
+        // 剩余的请求块在没有中继时会被直接释放，恢复读取以便把它们读完
+        ctx.channel().config().setAutoRead(true);
+    }
+
+    private void complete(ChannelFuture lastWrite) {
+        finish(!serverError);
+        cancelDeadline();
+        closed = true;
+        result.complete(null);
+        ctx.channel().attr(RELAY_KEY).set(null);
+        upstream.close();
+        if (keepAlive) {
+            ctx.channel().config().setAutoRead(true);
+        } else {
+            lastWrite.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * 转发结束，记录实例的延迟和结果，只记录一次
+     */
+    private void finish(boolean success) {
+        if (instanceStats == null) {
+            return;
+        }
+        RouteUtil.recordOutcome(context, context.getServiceInstance(), instanceStats, startNanos, success);
+        instanceStats = null;
+    }
+
+    private static boolean isCancelled(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable instanceof CancellationException;
+    }
+
+    private void cancelDeadline() {
+        if (deadlineFuture != null) {
+            deadlineFuture.cancel(false);
+            deadlineFuture = null;
+        }
+    }
+
+    /**
+     * 请求体未转发完且下游可写时才读取客户端数据
+     * 请求体转发完之后暂停读取，等响应结束后再处理同一连接上的下一个请求
+     */
+    private void updateClientRead() {
+        ctx.channel().config().setAutoRead(!requestDone && upstream.isWritable());
+    }
+
+    private HttpRequest buildUpstreamHead(GatewayRequest request) {
+        HttpRequest head = new DefaultHttpRequest(HttpVersion.HTTP_1_1, request.getMethod(), RequestHelper.buildUpstreamUri(request));
+        head.headers().set(request.getHeaders());
+        head.headers().set(HttpHeaderNames.HOST, request.getModifyHost());
+        head.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        return head;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.spark.gateway.core.netty.stream;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * 流式转发下游连接的处理器
+ * 把下游的响应和连接状态变化交给对应的中继处理
+ */
+public class StreamUpstreamHandler extends ChannelInboundHandlerAdapter {
+
+    private final StreamRelay relay;
+
+    public StreamUpstreamHandler(StreamRelay relay) {
+        this.relay = relay;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        relay.writeResponse(msg);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        relay.onUpstreamWritabilityChanged();
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        relay.onUpstreamInactive();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        relay.fail(cause);
+        ctx.close();
+    }
+
+}
@@ -164,10 +164,10 @@ public class GatewayRequest {
         this.requestBuilder.setMethod(method.name());
         this.requestBuilder.setHeaders(headers);
         this.requestBuilder.setQueryParams(queryStringDecoder.parameters());
+        // 请求体直接引用客户端请求的内存，每次发送时单独持有引用，客户端请求在响应写回后由网关上下文释放，重试时可以重放
         ByteBuf contentBuffer = fullHttpRequest.content();
         if (Objects.nonNull(contentBuffer)) {
             this.requestBuilder.setBody(contentBuffer.nioBuffer());
-            contentBuffer.release();
         }
     }
 
@@ -186,7 +186,7 @@ public class GatewayRequest {
             }
             Set<io.netty.handler.codec.http.cookie.Cookie> cookies = ServerCookieDecoder.STRICT.decode(cookieStr);
             for (io.netty.handler.codec.http.cookie.Cookie cookie : cookies) {
-                cookieMap.put(name, cookie);
+                cookieMap.put(cookie.name(), cookie);
             }
         }
         return cookieMap.get(name);
@@ -198,7 +198,22 @@ public class GatewayRequest {
      * @return 构建的Request对象
      */
     public Request build() {
-        return requestBuilder.setUrl(modifyScheme + modifyHost + modifyPath).build();
+        return build(modifyHost, 0, 0);
+    }
+
+    /**
+     * 构建发给指定下游实例的请求
+     *
+     * @param address        下游实例地址，ip:port
+     * @param timeout        请求剩余的超时时间，单位ms，大于0时写入请求头传给下游
+     * @param requestTimeout 本次请求的超时时间，单位ms，为0时使用客户端配置
+     * @return 构建的Request对象
+     */
+    public Request build(String address, long timeout, int requestTimeout) {
+        if (timeout > 0) {
+            requestBuilder.setHeader(HttpConstant.HTTP_REQUEST_TIMEOUT, String.valueOf(timeout));
+        }
+        return requestBuilder.setUrl(modifyScheme + address + modifyPath).setRequestTimeout(requestTimeout).build();
     }
 
 }
@@ -0,0 +1,103 @@
+package com.spark.gateway.core.resilience;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 异步舱壁
+ * 限制一个服务同时进行的下游调用数，许可在下游调用完成时才归还，超出的调用进入有界等待队列，
+ * 有许可归还时在调用方自己的EventLoop上继续执行，整个过程不阻塞任何线程
+ */
+public class AsyncBulkhead {
+
+    private final String name;
+
+    private final Semaphore permits; // 并发许可
+
+    private final int maxQueueSize; // 等待队列容量
+
+    private final Queue<Runnable> waitingQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger waitingSize = new AtomicInteger(0);
+
+    public AsyncBulkhead(String name, int maxConcurrentCalls, int maxQueueSize) {
+        this.name = name;
+        this.permits = new Semaphore(Math.max(1, maxConcurrentCalls));
+        this.maxQueueSize = Math.max(0, maxQueueSize);
+    }
+
+    /**
+     * 在舱壁内执行异步调用
+     *
+     * @param executor 排队的调用获得许可后在该执行器上继续
+     * @param supplier 异步调用
+     * @return 调用结果，等待队列已满时以RejectedExecutionException失败
+     */
+    public <T> CompletionStage<T> executeCompletionStage(Executor executor, Supplier<? extends CompletionStage<T>> supplier) {
+        // 没有排队的调用时直接尝试获取许可，避免插队
+        if (waitingQueue.isEmpty() && permits.tryAcquire()) {
+            return run(supplier);
+        }
+        if (waitingSize.incrementAndGet() > maxQueueSize) {
+            waitingSize.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("bulkhead '" + name + "' is full"));
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        waitingQueue.offer(() -> {
+            try {
+                executor.execute(() -> run(supplier).whenComplete((response, throwable) -> {
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else {
+                        result.complete(response);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // 执行器已关闭，归还分配到的许可
+                release();
+                result.completeExceptionally(e);
+            }
+        });
+        // 入队期间可能已经有许可被归还，入队后再尝试分配一次
+        drain();
+        return result;
+    }
+
+    /**
+     * 持有许可执行调用，调用完成后归还许可
+     */
+    private <T> CompletionStage<T> run(Supplier<? extends CompletionStage<T>> supplier) {
+        CompletionStage<T> stage;
+        try {
+            stage = supplier.get();
+        } catch (Throwable t) {
+            release();
+            return CompletableFuture.failedFuture(t);
+        }
+        stage.whenComplete((response, throwable) -> release());
+        return stage;
+    }
+
+    private void release() {
+        permits.release();
+        drain();
+    }
+
+    /**
+     * 把空闲许可分配给排队的调用
+     */
+    private void drain() {
+        while (!waitingQueue.isEmpty() && permits.tryAcquire()) {
+            Runnable waiter = waitingQueue.poll();
+            if (waiter == null) {
+                permits.release();
+                return;
+            }
+            waitingSize.decrementAndGet();
+            waiter.run();
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.spark.gateway.core.resilience;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 异步重试
+ * 调用失败时按指数退避加全抖动等待后重试，等待在调用方自己的EventLoop上定时，不占用专门的线程池；
+ * 每次重试需要从服务的重试预算中取出令牌，重试数不超过请求数的一定比例，下游故障时不会成倍放大流量
+ */
+public class AsyncRetry {
+
+    private static final int MAX_RETRY_TOKENS = 10; // 最多积累的重试令牌数，也是初始令牌数
+
+    private final int maxAttempts; // 最大调用次数，包括第一次调用
+
+    private final long baseDelay; // 退避的基础间隔，单位ms
+
+    private final long maxDelay; // 退避的最大间隔，单位ms
+
+    private final RequestBudget budget; // 重试预算
+
+    public AsyncRetry(int maxAttempts, long baseDelay, long maxDelay, int budgetRatio) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = Math.max(0, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+        this.budget = new RequestBudget(budgetRatio, MAX_RETRY_TOKENS, MAX_RETRY_TOKENS);
+    }
+
+    /**
+     * 执行异步调用，失败时重试
+     *
+     * @param scheduler 重试的等待在该调度器上定时，一般是客户端连接所在的EventLoop
+     * @param deadline  截止时间，System.nanoTime()，退避等待后会超过截止时间时不再重试，为0时不限制
+     * @param supplier  异步调用
+     * @return 调用结果，重试次数用完、预算不足或时间不足时以最后一次的异常失败
+     */
+    public <T> CompletionStage<T> executeCompletionStage(ScheduledExecutorService scheduler, long deadline, Supplier<? extends CompletionStage<T>> supplier) {
+        budget.onRequest();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(scheduler, deadline, supplier, result, 1);
+        return result;
+    }
+
+    private <T> void attempt(ScheduledExecutorService scheduler, long deadline, Supplier<? extends CompletionStage<T>> supplier,
+                             CompletableFuture<T> result, int attempt) {
+        CompletionStage<T> stage;
+        try {
+            stage = supplier.get();
+        } catch (Throwable t) {
+            stage = CompletableFuture.failedFuture(t);
+        }
+        stage.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                result.complete(response);
+                return;
+            }
+            long backoff = backoff(attempt);
+            if (attempt >= maxAttempts
+                    || (deadline != 0 && deadline - System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(backoff) <= 0)
+                    || !budget.tryAcquire()) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            try {
+                scheduler.schedule(() -> attempt(scheduler, deadline, supplier, result, attempt + 1), backoff, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 调度器已关闭，不再重试
+                result.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    /**
+     * 第n次重试的等待时间，在0到min(maxDelay, baseDelay * 2^(n-1))之间均匀随机
+     */
+    private long backoff(int attempt) {
+        long delay = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(delay + 1);
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.spark.gateway.core.resilience;
+
+import cn.hutool.core.collection.ConcurrentHashSet;
+import com.spark.gateway.config.manager.DynamicConfigManager;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.core.algorithm.LatencyHistogram;
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.filter.loadbalance.InstanceStats;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
+import com.spark.gateway.core.filter.loadbalance.LoadBalanceFilter;
+import com.spark.gateway.core.filter.route.RouteUtil;
+import com.spark.gateway.core.response.GatewayResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对冲请求
+ * 幂等请求超过对冲延迟仍未返回时，向另一个实例再发送一次，先返回的响应生效，其余的请求被取消，
+ * 对冲延迟默认取观测到的p95延迟，对冲请求数受预算限制，不超过请求数的一定比例
+ */
+@Slf4j
+public class Hedging {
+
+    private static final Hedging INSTANCE = new Hedging();
+
+    private static final double HEDGING_PERCENTILE = 0.95; // 未配置对冲延迟时使用的延迟分位
+
+    private static final long MIN_SAMPLES = 100; // 计算分位数需要的最少样本数，不足时不对冲
+
+    private static final long HISTOGRAM_DECAY_INTERVAL = TimeUnit.SECONDS.toNanos(30); // 延迟直方图衰减间隔
+
+    private static final long DELAY_REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(1); // 重新计算对冲延迟的间隔
+
+    private static final int MAX_HEDGING_TOKENS = 100; // 最多积累的对冲令牌数
+
+    // 服务对应的对冲统计
+    private final Map<String /* 服务名 */, ServiceHedging> hedgingMap = new ConcurrentHashMap<>();
+
+    private final Set<String> addListener = new ConcurrentHashSet<>();
+
+    private Hedging() {
+    }
+
+    public static Hedging getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 请求是否需要对冲，只对开启了对冲的路由的GET、HEAD、OPTIONS请求对冲
+     *
+     * @param context 网关上下文
+     * @return 是否需要对冲
+     */
+    public boolean shouldHedge(GatewayContext context) {
+        if (!context.getRoute().getResilience().isHedgingEnabled()) {
+            return false;
+        }
+        HttpMethod method = context.getRequest().getMethod();
+        return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method);
+    }
+
+    /**
+     * 执行对冲请求，先向负载均衡选中的实例发送，超过对冲延迟仍未返回时在客户端连接所在的EventLoop上向另一个实例发送
+     *
+     * @param context 网关上下文
+     * @return 先返回的响应，所有请求都失败时以最后一个异常失败
+     */
+    public CompletableFuture<GatewayResponse> execute(GatewayContext context) {
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        RouteDefinition.ResilienceConfig resilienceConfig = context.getRoute().getResilience();
+        ServiceHedging serviceHedging = getServiceHedging(serviceName, resilienceConfig);
+        serviceHedging.budget.onRequest();
+
+        HedgedCall call = new HedgedCall(serviceHedging.histogram);
+        call.send(context, context.getServiceInstance(), context.getInstanceStats());
+        long delay = serviceHedging.getDelay(resilienceConfig);
+        if (delay >= 0 && !call.result.isDone()) {
+            ScheduledFuture<?> hedgeFuture = context.getNettyCtx().executor()
+                    .schedule(() -> hedge(context, call, serviceHedging), delay, TimeUnit.NANOSECONDS);
+            call.result.whenComplete((response, throwable) -> hedgeFuture.cancel(false));
+        }
+        return call.result;
+    }
+
+    /**
+     * 对冲延迟到期，预算允许并且有其他可用实例时发送对冲请求
+     */
+    private void hedge(GatewayContext context, HedgedCall call, ServiceHedging serviceHedging) {
+        if (call.result.isDone()) {
+            return;
+        }
+        ServiceInstance instance = LoadBalanceFilter.selectInstance(context, context.getServiceInstance());
+        if (instance == null || !serviceHedging.budget.tryAcquire()) {
+            return;
+        }
+        String serviceName = context.getRequest().getServiceDefinition().getServiceName();
+        try {
+            call.send(context, instance, InstanceStatsManager.getInstance().getStats(serviceName, instance));
+        } catch (Exception e) {
+            log.warn("hedge request of service {} occur exception: {}", serviceName, e.getMessage());
+        }
+    }
+
+    private ServiceHedging getServiceHedging(String serviceName, RouteDefinition.ResilienceConfig resilienceConfig) {
+        ServiceHedging serviceHedging = hedgingMap.get(serviceName);
+        if (serviceHedging == null) {
+            // 路由变更时清除，下次请求按新的配置创建
+            serviceHedging = hedgingMap.computeIfAbsent(serviceName, name -> {
+                if (!addListener.contains(name)) {
+                    DynamicConfigManager.getInstance().addRouteListener(name, newRoute -> hedgingMap.remove(newRoute.getServiceName()));
+                    addListener.add(name);
+                }
+                return new ServiceHedging(resilienceConfig.getHedgingMaxRatio());
+            });
+        }
+        return serviceHedging;
+    }
+
+    /**
+     * 一个服务的延迟直方图和对冲预算
+     */
+    private static class ServiceHedging {
+
+        private final LatencyHistogram histogram = new LatencyHistogram(HISTOGRAM_DECAY_INTERVAL, MIN_SAMPLES);
+
+        private final RequestBudget budget;
+
+        private volatile long delay = -1; // 根据直方图计算的对冲延迟，单位纳秒
+
+        private volatile long delayExpireAt = System.nanoTime(); // 对冲延迟的过期时间
+
+        private ServiceHedging(int maxRatio) {
+            this.budget = new RequestBudget(maxRatio, MAX_HEDGING_TOKENS);
+        }
+
+        /**
+         * 对冲延迟，单位纳秒，没有配置并且样本不足时返回-1，不对冲
+         */
+        private long getDelay(RouteDefinition.ResilienceConfig resilienceConfig) {
+            if (resilienceConfig.getHedgingDelay() > 0) {
+                return TimeUnit.MILLISECONDS.toNanos(resilienceConfig.getHedgingDelay());
+            }
+            long now = System.nanoTime();
+            if (now - delayExpireAt >= 0) {
+                delay = histogram.getPercentile(HEDGING_PERCENTILE);
+                delayExpireAt = now + DELAY_REFRESH_INTERVAL;
+            }
+            return delay;
+        }
+
+    }
+
+    /**
+     * 一次对冲调用，记录进行中的请求，第一个响应生效并取消其余请求
+     */
+    private static class HedgedCall {
+
+        private final CompletableFuture<GatewayResponse> result = new CompletableFuture<>();
+
+        private final LatencyHistogram histogram;
+
+        private final List<CompletableFuture<GatewayResponse>> attempts = new ArrayList<>(2);
+
+        private int pending; // 进行中的请求数
+
+        private boolean done; // 结果是否已确定
+
+        private HedgedCall(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        private void send(GatewayContext context, ServiceInstance instance, InstanceStats instanceStats) {
+            long startNanos = System.nanoTime();
+            CompletableFuture<GatewayResponse> attempt = RouteUtil.send(context, instance, instanceStats);
+            synchronized (this) {
+                if (done) {
+                    attempt.cancel(false);
+                    return;
+                }
+                attempts.add(attempt);
+                pending++;
+            }
+            attempt.whenComplete((response, throwable) -> {
+                // 成功的响应计入延迟直方图
+                if (throwable == null && (response.getHttpResponseStatus() == null || response.getHttpResponseStatus().code() < 500)) {
+                    histogram.record(System.nanoTime() - startNanos);
+                }
+                complete(attempt, response, throwable);
+            });
+        }
+
+        private void complete(CompletableFuture<GatewayResponse> attempt, GatewayResponse response, Throwable throwable) {
+            List<CompletableFuture<GatewayResponse>> losers = null;
+            boolean win = false;
+            boolean fail = false;
+            synchronized (this) {
+                pending--;
+                if (!done) {
+                    if (throwable == null) {
+                        win = true;
+                    } else {
+                        // 所有请求都失败时才失败
+                        fail = pending == 0;
+                    }
+                    if (win || fail) {
+                        done = true;
+                        losers = new ArrayList<>(attempts);
+                        losers.remove(attempt);
+                    }
+                }
+            }
+            if (losers != null) {
+                losers.forEach(loser -> loser.cancel(false));
+            }
+            if (win) {
+                result.complete(response);
+            } else if (fail) {
+                result.completeExceptionally(throwable);
+            } else if (throwable == null && response.getBody() != null) {
+                // 已经有响应生效，落后的响应直接释放
+                ReferenceCountUtil.release(response.getBody());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.spark.gateway.core.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 额外请求预算
+ * 每个请求按比例存入令牌，额外请求（对冲、重试）需要取出一个完整的令牌，
+ * 使额外请求不超过请求数的一定比例，下游故障时不会因为额外请求放大负载
+ */
+public class RequestBudget {
+
+    private static final long TOKEN = 1000; // 一个令牌，以千分之一令牌为单位计数
+
+    private final long deposit; // 每个请求存入的千分之一令牌数
+
+    private final long maxTokens; // 令牌上限，单位千分之一令牌
+
+    private final AtomicLong tokens = new AtomicLong(0); // 当前令牌数，单位千分之一令牌
+
+    /**
+     * @param ratioPercent 额外请求占请求数的最大百分比
+     * @param maxTokens    最多积累的令牌数，限制空闲后的突发额外请求
+     */
+    public RequestBudget(int ratioPercent, int maxTokens) {
+        this(ratioPercent, maxTokens, 0);
+    }
+
+    /**
+     * @param ratioPercent  额外请求占请求数的最大百分比
+     * @param maxTokens     最多积累的令牌数，限制空闲后的突发额外请求
+     * @param initialTokens 初始令牌数，使请求量很小的服务也能发出少量额外请求
+     */
+    public RequestBudget(int ratioPercent, int maxTokens, int initialTokens) {
+        this.deposit = ratioPercent * TOKEN / 100;
+        this.maxTokens = maxTokens * TOKEN;
+        this.tokens.set(Math.min(initialTokens, maxTokens) * TOKEN);
+    }
+
+    /**
+     * 记录一个请求，按比例存入令牌
+     */
+    public void onRequest() {
+        tokens.getAndUpdate(current -> Math.min(current + deposit, maxTokens));
+    }
+
+    /**
+     * 尝试取出一个令牌
+     *
+     * @return 是否取到令牌
+     */
+    public boolean tryAcquire() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+}
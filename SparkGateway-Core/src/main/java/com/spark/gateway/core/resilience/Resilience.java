@@ -1,8 +1,11 @@
 package com.spark.gateway.core.resilience;
 
 
+import cn.hutool.core.collection.ConcurrentHashSet;
 import com.spark.enums.ResilienceEnum;
 import com.spark.enums.ResponseCode;
+import com.spark.enums.RetryModeEnum;
+import com.spark.gateway.config.manager.DynamicConfigManager;
 import com.spark.gateway.config.pojo.RouteDefinition;
 import com.spark.gateway.core.context.GatewayContext;
 import com.spark.gateway.core.filter.route.RouteUtil;
@@ -11,20 +14,22 @@ import com.spark.gateway.core.helper.ResponseHelper;
 import com.spark.gateway.core.resilience.fallback.FallbackHandler;
 import com.spark.gateway.core.resilience.fallback.FallbackHandlerManager;
 import io.github.resilience4j.bulkhead.Bulkhead;
-import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
-import io.github.resilience4j.retry.Retry;
-import org.asynchttpclient.Response;
+import io.netty.handler.codec.http.HttpMethod;
 
-import java.util.concurrent.*;
-import java.util.function.Supplier;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class Resilience {
 
     private static final Resilience INSTANCE = new Resilience();
 
-    ScheduledExecutorService retryScheduler = Executors.newScheduledThreadPool(10);
+    // 服务对应的已编译调用链
+    private final Map<String /* 服务名 */, CompiledPipeline> pipelineMap = new ConcurrentHashMap<>();
+
+    private final Set<String> addListener = new ConcurrentHashSet<>();
 
     private Resilience() {
     }
@@ -40,81 +45,131 @@ public class Resilience {
      * @param gatewayContext 网关上下文，包含路由信息、请求信息等
      */
     public void executeRequest(GatewayContext gatewayContext) {
-        // 获取韧性配置
-        RouteDefinition.ResilienceConfig resilienceConfig = gatewayContext.getRoute().getResilience();
-        // 获取服务名称
         String serviceName = gatewayContext.getRequest().getServiceDefinition().getServiceName();
+        // 获取服务已编译的调用链，路由变更时通过路由监听器清除
+        // 按服务当前的路由编译，请求匹配时的路由可能已经被更新
+        RouteDefinition route = DynamicConfigManager.getInstance().getRouteByServiceName(serviceName);
+        if (route == null) {
+            route = gatewayContext.getRoute();
+        }
+        RouteDefinition currentRoute = route;
+        CompiledPipeline compiled = pipelineMap.computeIfAbsent(serviceName, name -> {
+            if (!addListener.contains(name)) {
+                DynamicConfigManager.getInstance().addRouteListener(name, newRoute -> pipelineMap.remove(newRoute.getServiceName()));
+                addListener.add(name);
+            }
+            return new CompiledPipeline(currentRoute, buildPipeline(currentRoute.getResilience(), name));
+        });
+        // 调用链不是由当前路由编译的（路由更新前后的请求交替时由旧路由编译而来）时重新编译，
+        // 韧性策略实例的失效交给路由监听器处理
+        if (compiled.route != currentRoute) {
+            compiled = new CompiledPipeline(currentRoute, buildPipeline(currentRoute.getResilience(), serviceName));
+            pipelineMap.put(serviceName, compiled);
+        }
+        compiled.pipeline.execute(gatewayContext);
+    }
+
+    /**
+     * 编译好的调用链及编译所用的路由
+     */
+    private record CompiledPipeline(RouteDefinition route, ResiliencePipeline pipeline) {
+    }
 
-        // 构建路由供应商函数
-        Supplier<CompletionStage<Response>> supplier = RouteUtil.buildRouteSupplier(gatewayContext);
+    /**
+     * 请求是否可以重试
+     * 幂等模式下只重试幂等方法的请求和带有幂等键的请求，重试时请求体从仍被持有的客户端请求中重新发送
+     *
+     * @param resilienceConfig 韧性配置
+     * @param context          网关上下文
+     * @return 是否可以重试
+     */
+    private static boolean isRetryable(RouteDefinition.ResilienceConfig resilienceConfig, GatewayContext context) {
+        if (resilienceConfig.getRetryMode() != RetryModeEnum.IDEMPOTENT) {
+            return true;
+        }
+        HttpMethod method = context.getRequest().getMethod();
+        if (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method)
+                || HttpMethod.TRACE.equals(method) || HttpMethod.PUT.equals(method) || HttpMethod.DELETE.equals(method)) {
+            return true;
+        }
+        String idempotencyKeyHeader = resilienceConfig.getIdempotencyKeyHeader();
+        return idempotencyKeyHeader != null && context.getRequest().getHeaders().contains(idempotencyKeyHeader);
+    }
+
+    /**
+     * 按韧性配置的顺序编译调用链
+     * 韧性策略实例、降级处理器都在编译时确定，请求时只执行组合好的调用链
+     *
+     * @param resilienceConfig 韧性配置
+     * @param serviceName      服务名称
+     * @return 编译好的调用链
+     */
+    private ResiliencePipeline buildPipeline(RouteDefinition.ResilienceConfig resilienceConfig, String serviceName) {
+        // 最内层直接向下游发起请求，实例级熔断在每次下游调用时对实际调用的实例生效
+        ResiliencePipeline pipeline = RouteUtil::route;
 
         // 遍历韧性配置的顺序，应用相应的韧性策略
         for (ResilienceEnum resilienceEnum : resilienceConfig.getOrder()) {
+            ResiliencePipeline next = pipeline;
             switch (resilienceEnum) {
                 case RETRY -> {
                     // 构建重试策略
-                    Retry retry = ResilienceFactory.buildRetry(resilienceConfig, serviceName);
-                    // 如果重试策略不为空，则装饰供应商函数
+                    AsyncRetry retry = ResilienceFactory.buildRetry(resilienceConfig, serviceName);
+                    // 如果重试策略不为空，则装饰调用链，重试的等待在客户端连接所在的EventLoop上定时，不可重试的请求只调用一次
                     if (retry != null) {
-                        supplier = Retry.decorateCompletionStage(retry, retryScheduler, supplier);
+                        pipeline = context -> isRetryable(resilienceConfig, context)
+                                ? retry.executeCompletionStage(context.getNettyCtx().executor(), context.getDeadline(), () -> next.execute(context))
+                                : next.execute(context);
                     }
                 }
                 case FALLBACK -> {
-                    // 如果启用了回退策略，则装饰供应商函数
+                    // 如果启用了回退策略，则装饰调用链
                     if (resilienceConfig.isFallbackEnabled()) {
-                        Supplier<CompletionStage<Response>> finalSupplier = supplier;
-                        supplier = () ->
-                                finalSupplier.get().exceptionally(throwable -> {
-                                    // 获取并执行回退处理器
-                                    FallbackHandler handler = FallbackHandlerManager.getHandler(resilienceConfig.getFallbackHandlerName());
-                                    handler.handle(throwable, gatewayContext);
-                                    return null;
-                                });
+                        FallbackHandler handler = FallbackHandlerManager.getHandler(resilienceConfig.getFallbackHandlerName());
+                        pipeline = context -> next.execute(context).exceptionally(throwable -> {
+                            // 执行回退处理器
+                            handler.handle(throwable, context);
+                            return null;
+                        });
                     }
                 }
                 case CIRCUITBREAKER -> {
                     // 构建断路器
                     CircuitBreaker circuitBreaker = ResilienceFactory.buildCircuitBreaker(resilienceConfig, serviceName);
-                    // 如果断路器不为空，则装饰供应商函数
+                    // 如果断路器不为空，则装饰调用链
                     if (circuitBreaker != null) {
-                        supplier = CircuitBreaker.decorateCompletionStage(circuitBreaker, supplier);
+                        pipeline = context -> circuitBreaker.executeCompletionStage(() -> next.execute(context));
                     }
                 }
                 case BULKHEAD -> {
                     // 构建舱壁
                     Bulkhead bulkhead = ResilienceFactory.buildBulkHead(resilienceConfig, serviceName);
-                    // 如果舱壁不为空，则装饰供应商函数
+                    // 如果舱壁不为空，则装饰调用链
                     if (bulkhead != null) {
-                        supplier = Bulkhead.decorateCompletionStage(bulkhead, supplier);
+                        pipeline = context -> bulkhead.executeCompletionStage(() -> next.execute(context));
                     }
                 }
                 case THREADPOOLBULKHEAD -> {
-                    // 构建线程池舱壁
-                    ThreadPoolBulkhead threadPoolBulkhead = ResilienceFactory.buildThreadPoolBulkhead(resilienceConfig, serviceName);
-                    // 如果线程池舱壁不为空，则装饰供应商函数
-                    if (threadPoolBulkhead != null) {
-                        Supplier<CompletionStage<Response>> finalSupplier = supplier;
-                        supplier = () -> {
-                            CompletionStage<CompletableFuture<Response>> future =
-                                    threadPoolBulkhead.executeSupplier(() -> finalSupplier.get().toCompletableFuture());
-                            try {
-                                return future.toCompletableFuture().get();
-                            } catch (InterruptedException | ExecutionException e) {
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    // 构建异步舱壁
+                    AsyncBulkhead asyncBulkhead = ResilienceFactory.buildAsyncBulkhead(resilienceConfig, serviceName);
+                    // 如果异步舱壁不为空，则装饰调用链，排队的调用在客户端连接所在的EventLoop上继续
+                    if (asyncBulkhead != null) {
+                        pipeline = context -> asyncBulkhead.executeCompletionStage(context.getNettyCtx().executor(), () -> next.execute(context));
                     }
                 }
             }
         }
 
         // 处理执行过程中可能抛出的异常
-        supplier.get().exceptionally(throwable -> {
-            // 如果未启用回退策略，则设置异常信息并构建错误响应
-            if (!resilienceConfig.isFallbackEnabled()) {
-                gatewayContext.setThrowable(throwable);
-                gatewayContext.setResponse(ResponseHelper.buildGatewayResponse(ResponseCode.SERVICE_UNAVAILABLE));
-                ContextHelper.writeBackResponse(gatewayContext);
+        ResiliencePipeline decorated = pipeline;
+        boolean fallbackEnabled = resilienceConfig.isFallbackEnabled();
+        return context -> decorated.execute(context).exceptionally(throwable -> {
+            // 如果未启用回退策略，则设置异常信息并构建错误响应，超过截止时间时返回504
+            if (!fallbackEnabled) {
+                context.setThrowable(throwable);
+                context.setResponse(ResponseHelper.buildGatewayResponse(context.isDeadlineExceeded()
+                        ? ResponseCode.DEADLINE_EXCEEDED : ResponseCode.SERVICE_UNAVAILABLE));
+                ContextHelper.writeBackResponse(context);
             }
             return null;
         });
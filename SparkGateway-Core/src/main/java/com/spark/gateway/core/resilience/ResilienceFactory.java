@@ -4,18 +4,19 @@ import cn.hutool.core.collection.ConcurrentHashSet;
 import com.spark.enums.CircuitBreakerEnum;
 import com.spark.gateway.config.manager.DynamicConfigManager;
 import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+import com.spark.gateway.core.filter.loadbalance.InstanceStatsManager;
+import com.spark.gateway.core.response.GatewayResponse;
 import io.github.resilience4j.bulkhead.*;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
-import io.github.resilience4j.retry.Retry;
-import io.github.resilience4j.retry.RetryConfig;
-import io.github.resilience4j.retry.RetryRegistry;
 
 import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 
 /**
@@ -25,34 +26,38 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ResilienceFactory {
 
     // 重试策略映射，用于缓存不同服务的重试策略实例
-    private static final Map<String, Retry> retryMap = new ConcurrentHashMap<>();
+    private static final Map<String, AsyncRetry> retryMap = new ConcurrentHashMap<>();
     // 断路器策略映射，用于缓存不同服务的断路器策略实例
     private static final Map<String, CircuitBreaker> circuitBreakerMap = new ConcurrentHashMap<>();
+    // 实例断路器映射，按服务名、实例id缓存
+    private static final Map<String, Map<String, CircuitBreaker>> instanceCircuitBreakerMap = new ConcurrentHashMap<>();
     // 舱壁策略映射，用于缓存不同服务的舱壁策略实例
     private static final Map<String, Bulkhead> bulkheadMap = new ConcurrentHashMap<>();
-    // 线程池舱壁策略映射，用于缓存不同服务的线程池舱壁策略实例
-    private static final Map<String, ThreadPoolBulkhead> threadPoolBulkheadMap = new ConcurrentHashMap<>();
+    // 异步舱壁映射，用于缓存不同服务的异步舱壁实例
+    private static final Map<String, AsyncBulkhead> asyncBulkheadMap = new ConcurrentHashMap<>();
 
     // 重试策略名称集合，用于记录已经创建的重试策略
     private static final Set<String> retrySet = new ConcurrentHashSet<>();
     // 断路器策略名称集合，用于记录已经创建的断路器策略
     private static final Set<String> circuitBreakerSet = new ConcurrentHashSet<>();
+    // 实例断路器的服务名称集合，用于记录已经订阅路由和实例变化的服务
+    private static final Set<String> instanceCircuitBreakerSet = new ConcurrentHashSet<>();
     // 舱壁策略名称集合，用于记录已经创建的舱壁策略
     private static final Set<String> bulkheadSet = new ConcurrentHashSet<>();
-    // 线程池舱壁策略名称集合，用于记录已经创建的线程池舱壁策略
-    private static final Set<String> threadPoolBulkheadSet = new ConcurrentHashSet<>();
+    // 异步舱壁名称集合，用于记录已经创建的异步舱壁
+    private static final Set<String> asyncBulkheadSet = new ConcurrentHashSet<>();
 
     /**
      * 根据韧性和服务名称构建重试策略实例
      * 如果重试功能未启用，则返回null
      * 如果已经存在该服务的重试策略，则直接返回缓存的实例
-     * 否则，根据配置创建新的重试策略实例，并缓存该实例
+     * 否则，根据配置创建新的重试策略实例，并缓存该实例，重试预算在服务内共享
      *
      * @param resilienceConfig 韧性配置，包含重试相关的配置信息
      * @param serviceName      服务名称，用于标识和缓存对应的重试策略
      * @return 返回构建的重试策略实例，如果重试功能未启用则返回null
      */
-    public static Retry buildRetry(RouteDefinition.ResilienceConfig resilienceConfig, String serviceName) {
+    public static AsyncRetry buildRetry(RouteDefinition.ResilienceConfig resilienceConfig, String serviceName) {
         // 检查重试功能是否已启用
         if (!resilienceConfig.isRetryEnabled()) {
             return null;
@@ -65,13 +70,9 @@ public class ResilienceFactory {
                 DynamicConfigManager.getInstance().addRouteListener(serviceName, newRoute -> retryMap.remove(newRoute.getServiceName()));
                 retrySet.add(serviceName);
             }
-            // 构建重试配置
-            RetryConfig config = RetryConfig.custom()
-                    .maxAttempts(resilienceConfig.getMaxAttempts())
-                    .waitDuration(Duration.ofMillis(resilienceConfig.getWaitDuration()))
-                    .build();
-            // 根据配置创建并返回重试策略实例
-            return RetryRegistry.of(config).retry(serviceName);
+            // 根据配置创建并返回重试策略实例，指数退避加全抖动
+            return new AsyncRetry(resilienceConfig.getMaxAttempts(), resilienceConfig.getWaitDuration(),
+                    resilienceConfig.getMaxBackoffDuration(), resilienceConfig.getRetryBudgetRatio());
         });
     }
 
@@ -98,21 +99,95 @@ public class ResilienceFactory {
                 circuitBreakerSet.add(serviceName);
             }
             // 根据韧性配置构建断路器配置
-            CircuitBreakerConfig circuitBreakerConfig = CircuitBreakerConfig.custom()
-                    .failureRateThreshold(resilienceConfig.getFailureRateThreshold())
-                    .slowCallRateThreshold(resilienceConfig.getSlowCallRateThreshold())
-                    .waitDurationInOpenState(Duration.ofMillis(resilienceConfig.getWaitDurationInOpenState()))
-                    .slowCallDurationThreshold(Duration.ofSeconds(resilienceConfig.getSlowCallDurationThreshold()))
-                    .permittedNumberOfCallsInHalfOpenState(resilienceConfig.getPermittedNumberOfCallsInHalfOpenState())
-                    .minimumNumberOfCalls(resilienceConfig.getMinimumNumberOfCalls())
-                    .slidingWindowType(slidingWindowTypeConvert(resilienceConfig.getType()))
-                    .slidingWindowSize(resilienceConfig.getSlidingWindowSize())
-                    .build();
+            CircuitBreakerConfig circuitBreakerConfig = circuitBreakerConfigBuilder(resilienceConfig).build();
             // 创建并返回断路器实例
             return CircuitBreakerRegistry.of(circuitBreakerConfig).circuitBreaker(serviceName);
         });
     }
 
+    /**
+     * 根据韧性配置构建实例级断路器
+     * 每个实例单独一个断路器，一个实例异常只熔断该实例；5xx响应也记为失败；
+     * 开启后按等待时间自动转为半开，状态变化同步到实例统计，负载均衡选择实例前排除熔断的实例
+     * 实例下线时通过实例监听器清除对应的断路器
+     * 如果实例级熔断未启用，则返回null
+     *
+     * @param resilienceConfig 韧性配置，包含断路器相关的配置信息
+     * @param serviceName      服务名称
+     * @param instanceId       实例id
+     * @return 返回实例的断路器，如果实例级熔断未启用则返回null
+     */
+    public static CircuitBreaker buildInstanceCircuitBreaker(RouteDefinition.ResilienceConfig resilienceConfig, String serviceName, String instanceId) {
+        if (!resilienceConfig.isInstanceCircuitBreakerEnabled()) {
+            return null;
+        }
+        Map<String, CircuitBreaker> circuitBreakers = instanceCircuitBreakerMap.computeIfAbsent(serviceName, name -> {
+            // 确保每个服务只订阅一次路由和实例变化
+            if (!instanceCircuitBreakerSet.contains(serviceName)) {
+                DynamicConfigManager.getInstance().addRouteListener(serviceName, newRoute -> removeInstanceCircuitBreakers(newRoute.getServiceName()));
+                DynamicConfigManager.getInstance().addInstanceListener(serviceName, ResilienceFactory::retainInstanceCircuitBreakers);
+                instanceCircuitBreakerSet.add(serviceName);
+            }
+            return new ConcurrentHashMap<>();
+        });
+        return circuitBreakers.computeIfAbsent(instanceId, id -> {
+            CircuitBreakerConfig circuitBreakerConfig = circuitBreakerConfigBuilder(resilienceConfig)
+                    .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                    .recordResult(result -> result instanceof GatewayResponse response && response.getHttpResponseStatus() != null
+                            && response.getHttpResponseStatus().code() >= 500)
+                    .build();
+            CircuitBreaker circuitBreaker = CircuitBreakerRegistry.of(circuitBreakerConfig).circuitBreaker(serviceName + "#" + instanceId);
+            circuitBreaker.getEventPublisher().onStateTransition(event -> {
+                CircuitBreaker.State state = event.getStateTransition().getToState();
+                InstanceStatsManager.getInstance().setCircuitOpen(serviceName, instanceId,
+                        state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN);
+            });
+            InstanceStatsManager.getInstance().setCircuitOpen(serviceName, instanceId, false);
+            return circuitBreaker;
+        });
+    }
+
+    /**
+     * 路由变更时清除服务的实例断路器，按新配置重建
+     */
+    private static void removeInstanceCircuitBreakers(String serviceName) {
+        Map<String, CircuitBreaker> circuitBreakers = instanceCircuitBreakerMap.remove(serviceName);
+        if (circuitBreakers == null) {
+            return;
+        }
+        for (String instanceId : circuitBreakers.keySet()) {
+            InstanceStatsManager.getInstance().setCircuitOpen(serviceName, instanceId, false);
+        }
+    }
+
+    /**
+     * 实例变化时清除已下线实例的断路器
+     */
+    private static void retainInstanceCircuitBreakers(String serviceName) {
+        Map<String, CircuitBreaker> circuitBreakers = instanceCircuitBreakerMap.get(serviceName);
+        if (circuitBreakers == null) {
+            return;
+        }
+        Set<String> instanceIds = DynamicConfigManager.getInstance().getInstanceSnapshot(serviceName)
+                .getAllInstances().stream().map(ServiceInstance::getInstanceId).collect(Collectors.toSet());
+        circuitBreakers.keySet().retainAll(instanceIds);
+    }
+
+    /**
+     * 根据韧性配置构建断路器配置
+     */
+    private static CircuitBreakerConfig.Builder circuitBreakerConfigBuilder(RouteDefinition.ResilienceConfig resilienceConfig) {
+        return CircuitBreakerConfig.custom()
+                .failureRateThreshold(resilienceConfig.getFailureRateThreshold())
+                .slowCallRateThreshold(resilienceConfig.getSlowCallRateThreshold())
+                .waitDurationInOpenState(Duration.ofMillis(resilienceConfig.getWaitDurationInOpenState()))
+                .slowCallDurationThreshold(Duration.ofSeconds(resilienceConfig.getSlowCallDurationThreshold()))
+                .permittedNumberOfCallsInHalfOpenState(resilienceConfig.getPermittedNumberOfCallsInHalfOpenState())
+                .minimumNumberOfCalls(resilienceConfig.getMinimumNumberOfCalls())
+                .slidingWindowType(slidingWindowTypeConvert(resilienceConfig.getType()))
+                .slidingWindowSize(resilienceConfig.getSlidingWindowSize());
+    }
+
     /**
      * 根据韧性和服务名称构建舱壁策略实例
      * 如果舱壁功能未启用，则返回null
@@ -146,36 +221,29 @@ public class ResilienceFactory {
     }
 
     /**
-     * 根据韧性和服务名称构建线程池舱壁策略实例
+     * 根据韧性和服务名称构建异步舱壁实例
+     * 线程池舱壁会在调用线程上阻塞等待下游结果，这里改用异步舱壁：最多maxThreadPoolSize个下游调用同时进行，
+     * 超出的调用最多queueCapacity个排队，排队期间不占用任何线程
      * 如果线程池舱壁功能未启用，则返回null
-     * 如果已经存在该服务的线程池舱壁策略，则直接返回缓存的实例
-     * 否则，根据配置创建新的线程池舱壁策略实例，并缓存该实例
      *
      * @param resilienceConfig 韧性配置，包含线程池舱壁相关的配置信息
-     * @param serviceName      服务名称，用于标识和缓存对应的线程池舱壁策略
-     * @return 返回构建的线程池舱壁策略实例，如果线程池舱壁功能未启用则返回null
+     * @param serviceName      服务名称，用于标识和缓存对应的异步舱壁
+     * @return 返回构建的异步舱壁实例，如果线程池舱壁功能未启用则返回null
      */
-    public static ThreadPoolBulkhead buildThreadPoolBulkhead(RouteDefinition.ResilienceConfig resilienceConfig, String serviceName) {
+    public static AsyncBulkhead buildAsyncBulkhead(RouteDefinition.ResilienceConfig resilienceConfig, String serviceName) {
         // 检查线程池舱壁功能是否启用，未启用则直接返回null
         if (!resilienceConfig.isThreadPoolBulkheadEnabled()) {
             return null;
         }
-        // 使用computeIfAbsent确保线程安全地检查和创建线程池舱壁策略实例
-        return threadPoolBulkheadMap.computeIfAbsent(serviceName, name -> {
+        // 使用computeIfAbsent确保线程安全地检查和创建异步舱壁实例
+        return asyncBulkheadMap.computeIfAbsent(serviceName, name -> {
             // 确保每个服务只监听一次，避免重复监听
-            if (!threadPoolBulkheadSet.contains(serviceName)) {
-                // 添加路由监听器，当路由更新时移除对应的线程池舱壁策略
-                DynamicConfigManager.getInstance().addRouteListener(serviceName, newRoute -> threadPoolBulkheadMap.remove(newRoute.getServiceName()));
-                threadPoolBulkheadSet.add(serviceName);
+            if (!asyncBulkheadSet.contains(serviceName)) {
+                // 添加路由监听器，当路由更新时移除对应的异步舱壁
+                DynamicConfigManager.getInstance().addRouteListener(serviceName, newRoute -> asyncBulkheadMap.remove(newRoute.getServiceName()));
+                asyncBulkheadSet.add(serviceName);
             }
-            // 根据韧性配置创建线程池舱壁策略配置
-            ThreadPoolBulkheadConfig threadPoolBulkheadConfig = ThreadPoolBulkheadConfig.custom()
-                    .coreThreadPoolSize(resilienceConfig.getCoreThreadPoolSize())
-                    .maxThreadPoolSize(resilienceConfig.getMaxThreadPoolSize())
-                    .queueCapacity(resilienceConfig.getQueueCapacity())
-                    .build();
-            // 根据配置创建并返回线程池舱壁策略实例
-            return ThreadPoolBulkheadRegistry.of(threadPoolBulkheadConfig).bulkhead(serviceName);
+            return new AsyncBulkhead(serviceName, resilienceConfig.getMaxThreadPoolSize(), resilienceConfig.getQueueCapacity());
         });
     }
 
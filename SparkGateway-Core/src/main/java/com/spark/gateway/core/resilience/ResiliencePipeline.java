@@ -0,0 +1,16 @@
+package com.spark.gateway.core.resilience;
+
+import com.spark.gateway.core.context.GatewayContext;
+import com.spark.gateway.core.response.GatewayResponse;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 按路由韧性配置组合好的请求调用链，每个服务编译一次，请求上下文作为参数传入
+ */
+@FunctionalInterface
+public interface ResiliencePipeline {
+
+    CompletionStage<GatewayResponse> execute(GatewayContext context);
+
+}
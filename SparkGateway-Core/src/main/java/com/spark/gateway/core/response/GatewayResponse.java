@@ -1,12 +1,16 @@
 package com.spark.gateway.core.response;
 
 
-import io.netty.handler.codec.http.DefaultHttpHeaders;
-import io.netty.handler.codec.http.HttpHeaders;
-import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.*;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import org.asynchttpclient.Response;
 
+import java.nio.charset.StandardCharsets;
+
 
 @Data
 public class GatewayResponse {
@@ -15,7 +19,7 @@ public class GatewayResponse {
      */
     private HttpHeaders responseHeaders = new DefaultHttpHeaders();
     /**
-     * 响应内容
+     * 响应内容，网关生成的响应或过滤器改写下游响应时设置，设置后覆盖下游响应体
      */
     private String content;
     /**
@@ -26,6 +30,36 @@ public class GatewayResponse {
      * 响应结果
      */
     private Response response;
+    /**
+     * 下游响应体，写回客户端时直接透传，不做拷贝
+     */
+    private ByteBuf body;
+    /**
+     * 下游响应体解码后的字符串，只有过滤器读取响应内容时才解码
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private String decodedBody;
+
+    /**
+     * 获取响应内容，没有设置响应内容时按响应头中的字符集解码下游响应体
+     */
+    public String getContent() {
+        if (content != null || body == null) {
+            return content;
+        }
+        if (decodedBody == null) {
+            decodedBody = body.toString(HttpUtil.getCharset(responseHeaders.get(HttpHeaderNames.CONTENT_TYPE), StandardCharsets.UTF_8));
+        }
+        return decodedBody;
+    }
+
+    /**
+     * 是否设置了响应内容
+     */
+    public boolean hasContent() {
+        return content != null;
+    }
 
     /**
      * 设置响应头信息
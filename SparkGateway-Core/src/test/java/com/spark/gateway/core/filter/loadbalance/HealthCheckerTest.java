@@ -0,0 +1,214 @@
+package com.spark.gateway.core.filter.loadbalance;
+
+import com.spark.gateway.config.manager.DynamicConfigManager;
+import com.spark.gateway.config.pojo.RouteDefinition;
+import com.spark.gateway.config.pojo.ServiceInstance;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * 主动健康检查和被动异常剔除的测试
+ * 用本地ServerSocket模拟下游实例，关闭监听端口模拟实例故障
+ */
+public class HealthCheckerTest {
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    private static final long WAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10); // 等待探测结果的最长时间，探测每秒一轮
+
+    private static EventLoopGroup eventLoopGroup;
+
+    @BeforeClass
+    public static void start() {
+        eventLoopGroup = new NioEventLoopGroup(1);
+        HealthChecker.getInstance().start(eventLoopGroup);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        HealthChecker.getInstance().shutdown();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void probeFailureExcludesAndRecoveryRestores() throws Exception {
+        String serviceName = "health-check-probe-test";
+        try (MockUpstream healthy = new MockUpstream(0)) {
+            int port = freePort();
+            ServiceInstance healthyInstance = addInstance(serviceName, "healthy", healthy.getPort());
+            ServiceInstance faultyInstance = addInstance(serviceName, "faulty", port);
+            RouteDefinition route = newRoute(serviceName);
+            route.getHealthCheck().setEnabled(true);
+            route.getHealthCheck().setInterval(100);
+            route.getHealthCheck().setTimeout(500);
+            route.getHealthCheck().setUnhealthyThreshold(2);
+            route.getHealthCheck().setHealthyThreshold(2);
+            DynamicConfigManager.getInstance().updateRoutes(List.of(route));
+
+            // 连续探测失败后摘除
+            waitFor(() -> !isAvailable(serviceName, faultyInstance));
+            assertTrue(isAvailable(serviceName, healthyInstance));
+
+            // 实例恢复监听后连续探测成功，重新参与负载均衡
+            try (MockUpstream recovered = new MockUpstream(port)) {
+                waitFor(() -> isAvailable(serviceName, faultyInstance));
+            }
+
+            // 再次摘除后关闭健康检查，不再有探测把实例恢复，摘除结果被清除
+            waitFor(() -> !isAvailable(serviceName, faultyInstance));
+            RouteDefinition disabled = newRoute(serviceName);
+            disabled.setId(route.getId());
+            disabled.getHealthCheck().setEnabled(false);
+            DynamicConfigManager.getInstance().updateRoutes(List.of(disabled));
+            assertTrue(isAvailable(serviceName, faultyInstance));
+        }
+    }
+
+    @Test
+    public void consecutiveFailuresEjectWithDoublingTimeCappedAtMax() throws Exception {
+        String serviceName = "health-check-outlier-test";
+        ServiceInstance instance = addInstance(serviceName, "outlier", 1);
+        addInstance(serviceName, "other", 2);
+        RouteDefinition.HealthCheckConfig healthCheck = new RouteDefinition.HealthCheckConfig();
+        healthCheck.setConsecutiveFailures(3);
+        healthCheck.setBaseEjectionTime(100);
+        healthCheck.setMaxEjectionTime(300);
+        InstanceStats stats = InstanceStatsManager.getInstance().getStats(serviceName, instance);
+
+        // 未达到连续失败次数，成功的调用清零计数
+        assertFalse(recordOutcome(serviceName, stats, healthCheck, false));
+        assertFalse(recordOutcome(serviceName, stats, healthCheck, false));
+        assertFalse(recordOutcome(serviceName, stats, healthCheck, true));
+        assertFalse(recordOutcome(serviceName, stats, healthCheck, false));
+        assertFalse(recordOutcome(serviceName, stats, healthCheck, false));
+        assertTrue(isAvailable(serviceName, instance));
+
+        // 剔除时长从基础时长开始翻倍，不超过最长剔除时长
+        long[] expectedMillis = {100, 200, 300, 300};
+        for (int i = 0; i < expectedMillis.length; i++) {
+            if (i > 0) {
+                for (int j = 0; j < healthCheck.getConsecutiveFailures() - 1; j++) {
+                    assertFalse(recordOutcome(serviceName, stats, healthCheck, false));
+                }
+            }
+            long start = System.nanoTime();
+            assertTrue(recordOutcome(serviceName, stats, healthCheck, false));
+            long ejectionMillis = TimeUnit.NANOSECONDS.toMillis(stats.getEjectedUntil() - start);
+            assertTrue("ejection " + i + " lasts " + ejectionMillis + "ms", Math.abs(ejectionMillis - expectedMillis[i]) <= 20);
+            assertFalse(isAvailable(serviceName, instance));
+
+            // 剔除到期后重新参与负载均衡
+            waitFor(() -> isAvailable(serviceName, instance));
+        }
+
+        // 恢复后超过最长剔除时长没有再被剔除，剔除时长重新从基础时长开始
+        Thread.sleep(healthCheck.getMaxEjectionTime() + 50);
+        for (int j = 0; j < healthCheck.getConsecutiveFailures() - 1; j++) {
+            assertFalse(recordOutcome(serviceName, stats, healthCheck, false));
+        }
+        long start = System.nanoTime();
+        assertTrue(recordOutcome(serviceName, stats, healthCheck, false));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(stats.getEjectedUntil() - start) <= healthCheck.getBaseEjectionTime() + 20);
+    }
+
+    /**
+     * 与RouteUtil.recordOutcome相同的剔除逻辑
+     */
+    private static boolean recordOutcome(String serviceName, InstanceStats stats, RouteDefinition.HealthCheckConfig healthCheck, boolean success) {
+        boolean ejected = stats.recordOutcome(success, healthCheck.getConsecutiveFailures(),
+                TimeUnit.MILLISECONDS.toNanos(healthCheck.getBaseEjectionTime()),
+                TimeUnit.MILLISECONDS.toNanos(healthCheck.getMaxEjectionTime()));
+        if (ejected) {
+            InstanceStatsManager.getInstance().availabilityChanged(serviceName);
+        }
+        return ejected;
+    }
+
+    private static boolean isAvailable(String serviceName, ServiceInstance instance) {
+        List<ServiceInstance> instances = DynamicConfigManager.getInstance().getInstanceSnapshot(serviceName).getEnabledInstances();
+        return InstanceStatsManager.getInstance().getAvailableInstances(serviceName, instances).contains(instance);
+    }
+
+    private static ServiceInstance addInstance(String serviceName, String instanceId, int port) {
+        ServiceInstance instance = new ServiceInstance();
+        instance.setServiceName(serviceName);
+        instance.setInstanceId(instanceId);
+        instance.setIp(LOCALHOST);
+        instance.setPort(port);
+        DynamicConfigManager.getInstance().addServiceInstance(serviceName, instance);
+        return instance;
+    }
+
+    private static RouteDefinition newRoute(String serviceName) {
+        RouteDefinition route = new RouteDefinition();
+        route.setServiceName(serviceName);
+        route.setUri("/" + serviceName + "/**");
+        return route;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName(LOCALHOST))) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met in " + WAIT_TIMEOUT + "ms");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * 模拟下游实例，接受连接后立即关闭
+     */
+    private static class MockUpstream implements AutoCloseable {
+
+        private final ServerSocket serverSocket;
+
+        private MockUpstream(int port) throws IOException {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(LOCALHOST, port));
+            Thread acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (Socket ignored = serverSocket.accept()) {
+                        // 只需要TCP连接成功
+                    } catch (IOException e) {
+                        // 监听关闭
+                    }
+                }
+            }, "mock-upstream-" + port);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+    }
+
+}